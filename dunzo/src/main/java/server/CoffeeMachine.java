@@ -1,29 +1,51 @@
 package server;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import server.admission.AdaptiveConcurrencyLimiter;
+import server.admission.AdmissionStats;
 import server.configs.CoffeeMachineConfig;
 import server.configs.Ingredient;
 import server.configs.Recipe;
+import server.containers.ContainerHandler;
 import server.containers.ContainerHandlerFactory;
+import server.containers.ContainerLevelCache;
+import server.containers.IngredientCreditPools;
 import server.database.models.Container;
 import server.database.repositories.ContainerRepository;
 import server.exceptions.IngredientNotAvailableException;
+import server.exceptions.InvalidCapacityException;
 import server.exceptions.InvalidOutletException;
+import server.orders.PendingOrder;
 import server.requests.DispenseBeverageRequest;
 import server.requests.RefillIngredientRequest;
 import server.responses.DispenseBeverageResponse;
+import server.tracing.BrewEvent;
+import server.tracing.CompensationEvent;
+import server.tracing.DispenseEvent;
+import server.tracing.OrderEvent;
+import server.tracing.OutletQueueEvent;
+import server.tracing.ReserveIngredientsEvent;
 
 import javax.annotation.PostConstruct;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
 /**
  * CoffeeMachine is the class responsible for orchestrating following requests:
@@ -32,6 +54,23 @@ import java.util.concurrent.Executors;
  * <p>
  * CoffeeMachine is initiated through initial CoffeeMachineConfig.
  * <p>
+ * Every outlet has an AdaptiveConcurrencyLimiter in front of it, requests beyond its limit are not queued
+ * but answered right away with a busy response.
+ * <p>
+ * Every accepted request gets an orderId, all the stages of dispensing it are recorded as JFR events
+ * carrying that orderId. Please See: DispenseTraceAnalyzer
+ * <p>
+ * Accepted orders are tracked as PendingOrders until they complete, so that they can be snapshotted
+ * and resumed on another machine. When snapshots are enabled, reserving ingredients and refills share a lock which
+ * snapshots take exclusively, so a snapshot never sees an order half way through its reservation.
+ * Please See: SnapshotService
+ * <p>
+ * Requests carrying an idempotencyKey are deduplicated through a bounded cache which evicts keys after
+ * dedup.expireAfterMinutes, so kiosk retries get the original future instead of brewing a second beverage.
+ * <p>
+ * When IngredientCreditPools are enabled outlets reserve ingredients from their own credit instead of
+ * going to the ContainerHandlers for every beverage.
+ * <p>
  * Please See:
  * CoffeeMachineConfig's description.
  * ContainerHandlerFactory's description.
@@ -45,30 +84,81 @@ public class CoffeeMachine {
     private ContainerHandlerFactory containerHandlerFactory;
     @Autowired
     private ContainerRepository containerRepository;
+    @Autowired
+    private ContainerLevelCache containerLevelCache;
+    // only present when outlet credit pools are enabled.
+    @Autowired(required = false)
+    private IngredientCreditPools ingredientCreditPools;
     @Value("${brewTime}")
     private Integer BREW_TIME;
+    @Value("${admission.enabled:true}")
+    private boolean admissionEnabled;
+    @Value("${admission.initialLimit:4}")
+    private int admissionInitialLimit;
+    @Value("${admission.minLimit:1}")
+    private int admissionMinLimit;
+    @Value("${admission.maxLimit:20}")
+    private int admissionMaxLimit;
+    @Value("${admission.targetQueueWaitMs:2000}")
+    private long admissionTargetQueueWaitMs;
+    @Value("${admission.backoffRatio:0.9}")
+    private double admissionBackoffRatio;
+    @Value("${dedup.maximumSize:1000000}")
+    private long dedupMaximumSize;
+    @Value("${dedup.expireAfterMinutes:10}")
+    private long dedupExpireAfterMinutes;
+    @Value("${snapshot.enabled:false}")
+    private boolean snapshotEnabled;
 
     private List<ExecutorService> outlets = new ArrayList<>();
+    private List<AdaptiveConcurrencyLimiter> limiters = new ArrayList<>();
+    private AtomicLong orderIds = new AtomicLong();
+    private Map<Long, PendingOrder> pendingOrders = new ConcurrentHashMap<>();
+    // read locked while container levels change, write locked while a consistent cut is read.
+    // a StampedLock as refills release it from whichever thread completes them.
+    private final StampedLock cutLock = new StampedLock();
+    // refills wait for the cutLock here instead of on the caller's thread, which may be a netty event loop.
+    private ExecutorService cutLockExecutor;
+    // idempotencyKey -> response of the first request carrying it
+    private Cache<String, CompletableFuture<DispenseBeverageResponse>> dispensedByKey;
 
     @PostConstruct
     private void setup() {
+        dispensedByKey = CacheBuilder.newBuilder()
+                .maximumSize(dedupMaximumSize)
+                .expireAfterWrite(dedupExpireAfterMinutes, TimeUnit.MINUTES)
+                .build();
+
+        if (snapshotEnabled) {
+            cutLockExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("cut-lock").build());
+        }
+
         log.info("Setting up outlet executors");
         for (int i = 0; i < coffeeMachineConfig.getOutLets(); i++) {
             // make a named executor for each thread to ease debugging.
             outlets.add(Executors.newSingleThreadExecutor(
                     new ThreadFactoryBuilder().setNameFormat("outlet-" + (i + 1)).build())
             );
+            limiters.add(admissionEnabled
+                    ? new AdaptiveConcurrencyLimiter(admissionInitialLimit, admissionMinLimit, admissionMaxLimit,
+                    admissionTargetQueueWaitMs, admissionBackoffRatio, BREW_TIME)
+                    // effectively unbounded, only keeps the stats.
+                    : new AdaptiveConcurrencyLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+                    Long.MAX_VALUE, 1, BREW_TIME));
         }
 
         log.info("creating containers if it doesn't exist");
         coffeeMachineConfig.getContainerConfigs()
                 .forEach(containerConfig -> {
-                    if (!containerRepository.findById(containerConfig.getIngredientName()).isPresent()) {
-                        Container container = new Container(containerConfig.getIngredientName(),
-                                containerConfig.getCapacity(),
-                                0);
-                        containerRepository.save(container);
-                    }
+                    Container container = containerRepository.findById(containerConfig.getIngredientName())
+                            .orElseGet(() -> containerRepository.save(new Container(containerConfig.getIngredientName(),
+                                    containerConfig.getCapacity(),
+                                    0)));
+                    // seed the read cache, ContainerHandlers keep it updated from here on.
+                    containerLevelCache.update(container);
+                    // with replication, pick up the levels merged while rehydrating before any order comes in.
+                    containerHandlerFactory.getHandler(containerConfig.getIngredientName()).refresh().join();
                 });
     }
 
@@ -78,19 +168,120 @@ public class CoffeeMachine {
      * beverage request couldn't be fulfilled as there were not enough ingredients.
      * The response will optionally have an error message in case it is not able to dispense.
      * This message can be used to display actions for users in case some ingredients are running low.
+     * If the outlet is overloaded the returned future is already completed with a busy response
+     * carrying retryAfterMillis, and the beverage is not brewed.
+     * If the request has an idempotencyKey already seen recently, it completes with the response of that earlier request.
+     * Only dispensed beverages are remembered, so a retry after a busy response, a rejection for want of ingredients
+     * or a failure is tried again.
      */
     public CompletableFuture<DispenseBeverageResponse> dispense(DispenseBeverageRequest request) {
+        String idempotencyKey = request.getIdempotencyKey();
+        if (idempotencyKey == null) return accept(request);
+
+        CompletableFuture<DispenseBeverageResponse> response =
+                dispensedByKey.asMap().computeIfAbsent(idempotencyKey, __ -> accept(request));
+        // completes only after the eviction, so a caller seeing anything but a dispensed beverage can retry right away.
+        return response.whenComplete((dispenseBeverageResponse, throwable) -> {
+            if (throwable != null || !dispenseBeverageResponse.getDispensed()) {
+                dispensedByKey.asMap().remove(idempotencyKey, response);
+            }
+        });
+    }
+
+    private CompletableFuture<DispenseBeverageResponse> accept(DispenseBeverageRequest request) {
         String recipeName = request.getRecipeName();
         Integer outletNumber = request.getOutletNumber();
 
-        if (outletNumber > coffeeMachineConfig.getOutLets() || outletNumber <= 0) {
+        if (outletNumber == null || outletNumber > coffeeMachineConfig.getOutLets() || outletNumber <= 0) {
             log.error("Invalid outlet number {}", outletNumber);
             throw new InvalidOutletException("invalid outlet number " + outletNumber +
                     ", total outlets " + coffeeMachineConfig.getOutLets());
         }
 
-        return CompletableFuture.runAsync(() ->
-                brew(recipeName), outlets.get(outletNumber - 1))
+        long orderId = orderIds.incrementAndGet();
+        DispenseEvent dispenseEvent = new DispenseEvent(orderId, recipeName, outletNumber);
+        dispenseEvent.begin();
+
+        AdaptiveConcurrencyLimiter limiter = limiters.get(outletNumber - 1);
+        if (!limiter.tryAcquire()) {
+            long retryAfterMillis = limiter.retryAfterMillis();
+            log.warn("Outlet {} is busy, rejecting beverage {}, retry after {} ms",
+                    outletNumber, recipeName, retryAfterMillis);
+            dispenseEvent.commit();
+            return CompletableFuture.completedFuture(new DispenseBeverageResponse(false,
+                    "Outlet " + outletNumber + " is busy, retry after " + retryAfterMillis + " ms",
+                    true, retryAfterMillis));
+        }
+
+        return submit(new PendingOrder(orderId, recipeName, outletNumber, PendingOrder.State.QUEUED),
+                limiter, dispenseEvent);
+    }
+
+    /**
+     * Resume an order taken over from another machine's snapshot.
+     * The order was already admitted there, so it is not subject to admission control here.
+     * An IN_FLIGHT order already had its ingredients reserved, so it is brewed without reserving them again.
+     */
+    public CompletableFuture<DispenseBeverageResponse> resume(PendingOrder order) {
+        if (order.getOutletNumber() > coffeeMachineConfig.getOutLets() || order.getOutletNumber() <= 0) {
+            throw new InvalidOutletException("invalid outlet number " + order.getOutletNumber() +
+                    ", total outlets " + coffeeMachineConfig.getOutLets());
+        }
+        // make sure that new orders never reuse the id of a resumed one.
+        orderIds.accumulateAndGet(order.getOrderId(), Math::max);
+        DispenseEvent dispenseEvent = new DispenseEvent(order.getOrderId(), order.getRecipeName(),
+                order.getOutletNumber());
+        dispenseEvent.begin();
+        AdaptiveConcurrencyLimiter limiter = limiters.get(order.getOutletNumber() - 1);
+        limiter.forceAcquire();
+        return submit(order, limiter, dispenseEvent);
+    }
+
+    /**
+     * @return copies of the orders accepted but not completed yet, ordered by orderId.
+     */
+    public List<PendingOrder> getPendingOrders() {
+        List<PendingOrder> orders = new ArrayList<>();
+        pendingOrders.values().forEach(order -> orders.add(new PendingOrder(order.getOrderId(),
+                order.getRecipeName(), order.getOutletNumber(), order.getState())));
+        orders.sort(Comparator.comparingLong(PendingOrder::getOrderId));
+        return orders;
+    }
+
+    /**
+     * Run reader while no order is reserving ingredients and no refill is in progress,
+     * so that the container levels and pending orders it reads are consistent with each other.
+     * Reservations and refills wait for the reader, so it must be quick.
+     * They only take the lock when snapshot.enabled, snapshots being its only reader.
+     */
+    public <T> T withConsistentCut(Supplier<T> reader) {
+        long stamp = cutLock.writeLock();
+        try {
+            return reader.get();
+        } finally {
+            cutLock.unlockWrite(stamp);
+        }
+    }
+
+    private CompletableFuture<DispenseBeverageResponse> submit(PendingOrder order,
+                                                               AdaptiveConcurrencyLimiter limiter,
+                                                               DispenseEvent dispenseEvent) {
+        long orderId = order.getOrderId();
+        String recipeName = order.getRecipeName();
+        int outletNumber = order.getOutletNumber();
+        pendingOrders.put(orderId, order);
+
+        long submittedAt = System.nanoTime();
+        AtomicLong startedAt = new AtomicLong(submittedAt);
+        OutletQueueEvent queueEvent = new OutletQueueEvent(orderId, outletNumber);
+        queueEvent.begin();
+        return CompletableFuture.runAsync(() -> {
+            queueEvent.commit();
+            startedAt.set(System.nanoTime());
+            brew(order);
+        }, outlets.get(outletNumber - 1))
+                .whenComplete((__, throwable) -> limiter.release(startedAt.get() - submittedAt,
+                        System.nanoTime() - startedAt.get()))
                 .thenApply(__ -> {
                     log.info("All ingredients successfully reserved and " +
                             "beverage {} successfully dispensed from outlet {}", recipeName, outletNumber);
@@ -105,32 +296,111 @@ public class CoffeeMachine {
                         return new DispenseBeverageResponse(false, errorMsg);
                     }
                     throw new CompletionException(throwable.getCause());
+                })
+                .whenComplete((response, throwable) -> {
+                    pendingOrders.remove(orderId);
+                    dispenseEvent.setDispensed(response != null && response.getDispensed());
+                    dispenseEvent.commit();
                 });
     }
 
 
+    /**
+     * @return current admission limit, in-flight and dropped counts of every outlet.
+     */
+    public List<AdmissionStats> getAdmissionStats() {
+        List<AdmissionStats> stats = new ArrayList<>();
+        for (int i = 0; i < limiters.size(); i++) {
+            AdaptiveConcurrencyLimiter limiter = limiters.get(i);
+            stats.add(new AdmissionStats(i + 1, limiter.getLimit(), limiter.getInFlight(),
+                    limiter.getAccepted(), limiter.getDropped()));
+        }
+        return stats;
+    }
+
+
     /**
      * @param request refill an ingredient.
      */
     public void refill(RefillIngredientRequest request) {
-        containerHandlerFactory.getHandler(request.getIngredientName())
-                .add(request.getQuantity()).join();
+        refillAsync(request).join();
+    }
+
+    /**
+     * @param request refill an ingredient without blocking the caller.
+     * @return future which completes with the refilled container, or exceptionally with InvalidCapacityException
+     * if the container can't hold that much.
+     * It throws InvalidCapacityException right away if the quantity is missing or not positive.
+     */
+    public CompletableFuture<Container> refillAsync(RefillIngredientRequest request) {
+        ContainerHandler handler = containerHandlerFactory.getHandler(request.getIngredientName());
+        if (request.getQuantity() == null || request.getQuantity() <= 0) {
+            log.error("Invalid refill quantity {} for ingredient {}", request.getQuantity(), request.getIngredientName());
+            throw new InvalidCapacityException("Refill quantity should be positive, got " + request.getQuantity());
+        }
+        if (!snapshotEnabled) return refill(handler, request);
+        return CompletableFuture.supplyAsync(cutLock::readLock, cutLockExecutor)
+                .thenCompose(stamp -> refill(handler, request)
+                        .whenComplete((container, throwable) -> cutLock.unlockRead(stamp)));
     }
 
+    private CompletableFuture<Container> refill(ContainerHandler handler, RefillIngredientRequest request) {
+        if (ingredientCreditPools == null) return handler.add(request.getQuantity());
+        // bring back the credit held by outlets so that capacity is checked against the whole stock.
+        return ingredientCreditPools.reclaim(OrderEvent.NO_ORDER, request.getIngredientName())
+                .thenCompose(__ -> handler.add(request.getQuantity()));
+    }
+
+
+    /**
+     * @param order reserve ingredients for a particular beverage.
+     *              If it is not able to successfully reserve the ingredients then it will throw IngredientNotAvailableException.
+     */
+    private void reserveIngredients(PendingOrder order) {
+        log.info("Started reserving ingredients for {}", order.getRecipeName());
+        ReserveIngredientsEvent reserveEvent = new ReserveIngredientsEvent(order.getOrderId(), order.getRecipeName());
+        reserveEvent.begin();
+        try {
+            Recipe recipe = coffeeMachineConfig.getRecipe(order.getRecipeName());
+            if (ingredientCreditPools != null) {
+                reserveFromCredit(order.getOrderId(), order.getOutletNumber(), recipe);
+            } else {
+                reserveIngredients(order.getOrderId(), recipe);
+            }
+            reserveEvent.setReserved(true);
+        } finally {
+            reserveEvent.commit();
+        }
+    }
 
     /**
-     * @param recipeName reserve ingredients for a particular beverage.
-     *                   If it is not able to successfully reserve the ingredients then it will throw IngredientNotAvailableException.
+     * Reserve the ingredients one by one from the outlet's credit, this runs on the outlet's own thread.
      */
-    private void reserveIngredients(String recipeName) {
-        log.info("Started reserving ingredients for {}", recipeName);
-        Recipe recipe = coffeeMachineConfig.getRecipe(recipeName);
+    private void reserveFromCredit(long orderId, int outletNumber, Recipe recipe) {
+        List<Ingredient> reserved = new ArrayList<>();
+        try {
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                ingredientCreditPools.reserve(orderId, outletNumber, ingredient.getName(), ingredient.getQuantity());
+                reserved.add(ingredient);
+            }
+        } catch (RuntimeException ex) {
+            // give the reserved ingredients back to the outlet's credit, the next beverage can use them.
+            CompensationEvent compensationEvent = new CompensationEvent(orderId, recipe.getName());
+            compensationEvent.begin();
+            for (Ingredient ingredient : reserved) {
+                ingredientCreditPools.release(outletNumber, ingredient.getName(), ingredient.getQuantity());
+            }
+            compensationEvent.commit();
+            throw ex;
+        }
+    }
 
+    private void reserveIngredients(long orderId, Recipe recipe) {
         // Try to reserve all required ingredients in parallel.
         CompletableFuture[] getAllIngredients = recipe.getIngredients()
                 .stream()
                 .map(ingredient -> containerHandlerFactory.getHandler(ingredient.getName())
-                        .subtract(ingredient.getQuantity()))
+                        .subtract(orderId, ingredient.getQuantity()))
                 .toArray(CompletableFuture[]::new);
 
         try {
@@ -138,12 +408,15 @@ public class CoffeeMachine {
         } catch (Exception ex) {
             // return the reserved ingredients back because some of the ingredients were not available for the recipe.
             // Beverage can't be served so no-point wasting the ingredients.
+            CompensationEvent compensationEvent = new CompensationEvent(orderId, recipe.getName());
+            compensationEvent.begin();
             for (int i = 0; i < getAllIngredients.length; i++) {
                 if (getAllIngredients[i].isCompletedExceptionally()) continue;
                 Ingredient ingredient = recipe.getIngredients().get(i);
                 containerHandlerFactory.getHandler(ingredient.getName())
-                        .add(ingredient.getQuantity()).join();
+                        .add(orderId, ingredient.getQuantity()).join();
             }
+            compensationEvent.commit();
         }
 
         // should throw if any of the parallel calls to reserve the required ingredients failed.
@@ -152,17 +425,30 @@ public class CoffeeMachine {
 
 
     /**
-     * @param recipeName Reserve the ingredients and brew the beverage.
-     *                   It will throw IngredientNotAvailableException if it is not able to serve the beverage due to unavailability of ingredients.
+     * @param order Reserve the ingredients, unless already reserved, and brew the beverage.
+     *              It will throw IngredientNotAvailableException if it is not able to serve the beverage due to unavailability of ingredients.
      */
-    private void brew(String recipeName) {
-        reserveIngredients(recipeName);
+    private void brew(PendingOrder order) {
+        long orderId = order.getOrderId();
+        String recipeName = order.getRecipeName();
+        if (order.getState() == PendingOrder.State.QUEUED) {
+            long stamp = snapshotEnabled ? cutLock.readLock() : 0;
+            try {
+                reserveIngredients(order);
+                order.setState(PendingOrder.State.IN_FLIGHT);
+            } finally {
+                if (snapshotEnabled) cutLock.unlockRead(stamp);
+            }
+        }
         log.info("Brewing Started {}", recipeName);
+        BrewEvent brewEvent = new BrewEvent(orderId, recipeName);
+        brewEvent.begin();
         try {
             Thread.sleep(BREW_TIME);
         } catch (InterruptedException e) {
             log.error("Unexpected Error in brewing ", e);
         }
+        brewEvent.commit();
         log.info("Brewing Completed {}", recipeName);
     }
 }
@@ -0,0 +1,109 @@
+package server.admission;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AdaptiveConcurrencyLimiter bounds the number of orders in-flight (queued or brewing) on an outlet.
+ * The limit is adjusted with AIMD on the observed queue wait of every completed order:
+ * 1. If an order waited in the queue longer than targetQueueWaitMs the limit is multiplied by backoffRatio.
+ * 2. Otherwise the limit grows additively by 1/limit, ie: roughly by one per "limit" completed orders.
+ * Orders beyond the limit are rejected right away instead of being queued, which keeps latency flat under overload.
+ * <p>
+ * Observed brew latency is kept as a moving average, seeded with the expected latency until the first order completes,
+ * and used to tell rejected callers when to retry.
+ */
+public class AdaptiveConcurrencyLimiter {
+    // weight of the latest sample in the moving average of brew latency.
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetQueueWaitNanos;
+    private final double backoffRatio;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile double limit;
+    private volatile double averageLatencyNanos;
+
+    /**
+     * @param expectedLatencyMs latency assumed for the retry estimate until orders complete, eg: the brew time.
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      long targetQueueWaitMs, double backoffRatio, long expectedLatencyMs) {
+        this.limit = initialLimit;
+        this.averageLatencyNanos = TimeUnit.MILLISECONDS.toNanos(expectedLatencyMs);
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetQueueWaitMs);
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * @return true if the order is admitted, caller must call release once the order completes.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                dropped.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                accepted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Count an order as in-flight even if it is beyond the limit, eg: for orders that were admitted earlier.
+     * Caller must call release once the order completes.
+     */
+    public void forceAcquire() {
+        inFlight.incrementAndGet();
+        accepted.increment();
+    }
+
+    /**
+     * @param queueWaitNanos time the order spent waiting for the outlet.
+     * @param latencyNanos   time the order spent being served by the outlet.
+     */
+    public synchronized void release(long queueWaitNanos, long latencyNanos) {
+        inFlight.decrementAndGet();
+        averageLatencyNanos = averageLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - averageLatencyNanos);
+        if (queueWaitNanos > targetQueueWaitNanos) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /**
+     * @return rough estimate of when an in-flight slot frees up, ie: the time to drain the orders in-flight
+     * spread over the limit.
+     */
+    public long retryAfterMillis() {
+        double drainNanos = inFlight.get() * averageLatencyNanos / Math.max(1, (int) limit);
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) drainNanos));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
@@ -0,0 +1,17 @@
+package server.admission;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Point in time view of an outlet's AdaptiveConcurrencyLimiter, used to tune the admission control.
+ */
+@Data
+@AllArgsConstructor
+public class AdmissionStats {
+    private int outletNumber;
+    private int limit;
+    private int inFlight;
+    private long accepted;
+    private long dropped;
+}
@@ -7,16 +7,31 @@ import server.database.repositories.ContainerRepository;
 import server.exceptions.IngredientNotAvailableException;
 import server.exceptions.IngredientNotFoundException;
 import server.exceptions.InvalidCapacityException;
+import server.replication.ReplicatedContainerLevels;
+import server.tracing.ContainerOperationEvent;
+import server.tracing.ContainerQueueEvent;
+import server.tracing.OrderEvent;
+import server.tracing.RepositorySaveEvent;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
 
 /**
  * Container handler is a class responsible to handle the container for a particular ingredient.
  * Container handlers are created through ContainerHandlerFactory and used through it only.
  * To make sure that ContainerHandlers are only created through ContainerHandlerFactory the access to constructor is made package private.
  * All operations done on a ContainerHandler are done through a single threaded executor to make sure at a time only one thread is responsible for maintaining the quantity of a particular ingredient.
+ * When replication is enabled, availability is decided by this node's budget in ReplicatedContainerLevels
+ * and the persisted Container row is kept at the converged replicated level.
+ * Refills on different nodes are each checked against their own replica, so concurrent ones can together
+ * push the replicated level above capacity. The persisted level is clamped to capacity and the excess
+ * is used up by dispenses like any other stock.
+ * Every change is published to ContainerLevelCache so that readers don't have to go through the repository.
+ * Queue wait, execution and repository save of every operation are recorded as JFR events tagged with the orderId.
  *
  * Please see:: ContainerHandlerFactory
  */
@@ -25,47 +40,163 @@ public class ContainerHandler {
     private String ingredientName;
     private ExecutorService executor;
     private ContainerRepository containerRepository;
+    private ContainerLevelCache containerLevelCache;
+    // null unless replication is enabled.
+    private ReplicatedContainerLevels replicatedLevels;
 
-    ContainerHandler(String ingredientName, ContainerRepository containerRepository) {
+    ContainerHandler(String ingredientName, ContainerRepository containerRepository,
+                     ContainerLevelCache containerLevelCache, ReplicatedContainerLevels replicatedLevels) {
         this.ingredientName = ingredientName;
         this.containerRepository = containerRepository;
+        this.containerLevelCache = containerLevelCache;
+        this.replicatedLevels = replicatedLevels;
         // setting threadName as ingredient name for better debugging
         executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat(ingredientName).build());
     }
 
-    public CompletableFuture<Container> subtract(int quantity) {
-        return CompletableFuture.supplyAsync(() -> {
+    /**
+     * @param orderId order on whose behalf the quantity is reserved, used to correlate traces.
+     */
+    public CompletableFuture<Container> subtract(long orderId, int quantity) {
+        return subtract(orderId, "subtract", quantity, quantity, taken -> {
+        });
+    }
+
+    /**
+     * Reserve as much as is available upto quantity but never less than minimum,
+     * eg: to draw a chunk of credit without first failing on a chunk bigger than what is left.
+     *
+     * @param onTaken called with the reserved quantity on the handler's own thread before the future completes,
+     *                so no other operation of this handler runs while the quantity is in neither place.
+     */
+    public CompletableFuture<Container> subtractUpTo(long orderId, int quantity, int minimum, IntConsumer onTaken) {
+        return subtract(orderId, "subtractUpTo", quantity, minimum, onTaken);
+    }
+
+    private CompletableFuture<Container> subtract(long orderId, String operation, int quantity, int minimum,
+                                                  IntConsumer onTaken) {
+        return traced(orderId, operation, quantity, operationEvent -> {
             log.info("Reserving {}, quantity {}", ingredientName, quantity);
             Container container = containerRepository.findById(ingredientName).orElseThrow(() ->
                     new IngredientNotFoundException("ingredient " + ingredientName + " not found"));
-            int currentLevel = container.getCurrentLevel();
-            if (currentLevel < quantity) {
-                log.error("Could not reserve {}, quantity {}", ingredientName, quantity);
+            int currentLevel = replicatedLevels == null ? container.getCurrentLevel()
+                    : replicatedLevels.budget(ingredientName);
+            // never less than minimum, so that a shortfall reaches tryReserve which asks other nodes for budget.
+            int taken = Math.max(minimum, Math.min(quantity, currentLevel));
+            if (replicatedLevels == null ? taken > currentLevel
+                    : !replicatedLevels.tryReserve(ingredientName, taken)) {
+                log.error("Could not reserve {}, quantity {}", ingredientName, minimum);
                 throw new IngredientNotAvailableException("Ingredient not available",
-                        ingredientName, quantity, currentLevel);
+                        ingredientName, minimum, currentLevel);
             }
-            log.info("Reserved {}, quantity {}", ingredientName, quantity);
-            container.setCurrentLevel(currentLevel - quantity);
-            containerRepository.save(container);
+            log.info("Reserved {}, quantity {}", ingredientName, taken);
+            operationEvent.setQuantity(taken);
+            container.setCurrentLevel(replicatedLevels == null ? currentLevel - taken : replicatedLevel(container));
+            save(orderId, container);
+            onTaken.accept(taken);
             return container;
-        }, executor);
+        });
     }
 
     public CompletableFuture<Container> add(int quantity) {
-        return CompletableFuture.supplyAsync(() -> {
-            log.info("Adding {}, quantity {}", ingredientName, quantity);
+        return add(OrderEvent.NO_ORDER, quantity);
+    }
+
+    /**
+     * @param orderId order on whose behalf the quantity is returned, used to correlate traces.
+     */
+    public CompletableFuture<Container> add(long orderId, int quantity) {
+        return add(orderId, () -> quantity);
+    }
+
+    /**
+     * @param quantity computed on the handler's own thread, eg: to take back credit in the same operation that adds it.
+     *                 Nothing is saved if it is 0.
+     */
+    public CompletableFuture<Container> add(long orderId, IntSupplier quantity) {
+        return traced(orderId, "add", 0, operationEvent -> {
             Container container = containerRepository.findById(ingredientName).orElseThrow(() ->
                     new IngredientNotFoundException("ingredient " + ingredientName + " not found"));
-            if (container.getCurrentLevel() + quantity > container.getCapacity()) {
+            int added = quantity.getAsInt();
+            operationEvent.setQuantity(added);
+            if (added == 0) return container;
+            log.info("Adding {}, quantity {}", ingredientName, added);
+            int currentLevel = replicatedLevels == null ? container.getCurrentLevel() : replicatedLevel(container);
+            if (currentLevel + added > container.getCapacity()) {
                 log.error("Capacity overloaded for ingredient {}, capacity {}",
                         ingredientName, container.getCapacity());
                 throw new InvalidCapacityException("Current container can not hold more than "
                         + container.getCapacity());
             }
-            log.info("Added {}, quantity {}", ingredientName, quantity);
-            container.setCurrentLevel(container.getCurrentLevel() + quantity);
-            containerRepository.save(container);
+            log.info("Added {}, quantity {}", ingredientName, added);
+            if (replicatedLevels != null) replicatedLevels.add(ingredientName, added);
+            container.setCurrentLevel(replicatedLevels == null ? currentLevel + added : replicatedLevel(container));
+            save(orderId, container);
+            return container;
+        });
+    }
+
+    /**
+     * Overwrite the current level of the container, used when taking over the state of another machine.
+     */
+    public CompletableFuture<Container> restore(int level) {
+        return traced(OrderEvent.NO_ORDER, "restore", level, operationEvent -> {
+            log.info("Restoring {}, level {}", ingredientName, level);
+            Container container = containerRepository.findById(ingredientName).orElseThrow(() ->
+                    new IngredientNotFoundException("ingredient " + ingredientName + " not found"));
+            if (level < 0 || level > container.getCapacity()) {
+                throw new InvalidCapacityException("Current container can not hold " + level
+                        + ", capacity " + container.getCapacity());
+            }
+            container.setCurrentLevel(level);
+            save(OrderEvent.NO_ORDER, container);
+            return container;
+        });
+    }
+
+    /**
+     * Bring the persisted level up to the replicated level, used after merging the gossip of other nodes.
+     * Without replication the container is returned unchanged.
+     */
+    public CompletableFuture<Container> refresh() {
+        return traced(OrderEvent.NO_ORDER, "refresh", 0, operationEvent -> {
+            Container container = containerRepository.findById(ingredientName).orElseThrow(() ->
+                    new IngredientNotFoundException("ingredient " + ingredientName + " not found"));
+            if (replicatedLevels == null) return container;
+            container.setCurrentLevel(replicatedLevel(container));
+            save(OrderEvent.NO_ORDER, container);
             return container;
+        });
+    }
+
+    private int replicatedLevel(Container container) {
+        return Math.min(replicatedLevels.value(ingredientName), container.getCapacity());
+    }
+
+    private CompletableFuture<Container> traced(long orderId, String operation, int quantity,
+                                                Function<ContainerOperationEvent, Container> task) {
+        ContainerQueueEvent queueEvent = new ContainerQueueEvent(orderId, ingredientName, operation);
+        queueEvent.begin();
+        return CompletableFuture.supplyAsync(() -> {
+            queueEvent.commit();
+            ContainerOperationEvent operationEvent =
+                    new ContainerOperationEvent(orderId, ingredientName, operation, quantity);
+            operationEvent.begin();
+            try {
+                Container container = task.apply(operationEvent);
+                operationEvent.setSucceeded(true);
+                return container;
+            } finally {
+                operationEvent.commit();
+            }
         }, executor);
     }
+
+    private void save(long orderId, Container container) {
+        RepositorySaveEvent saveEvent = new RepositorySaveEvent(orderId, ingredientName);
+        saveEvent.begin();
+        containerRepository.save(container);
+        saveEvent.commit();
+        containerLevelCache.update(container);
+    }
 }
@@ -6,6 +6,7 @@ import org.springframework.stereotype.Service;
 import server.configs.CoffeeMachineConfig;
 import server.database.repositories.ContainerRepository;
 import server.exceptions.IngredientNotFoundException;
+import server.replication.ReplicatedContainerLevels;
 
 import javax.annotation.PostConstruct;
 import java.util.HashMap;
@@ -27,6 +28,11 @@ public class ContainerHandlerFactory {
     private CoffeeMachineConfig coffeeMachineConfig;
     @Autowired
     private ContainerRepository containerRepository;
+    @Autowired
+    private ContainerLevelCache containerLevelCache;
+    // only present when replication is enabled, see ReplicationConfiguration.
+    @Autowired(required = false)
+    private ReplicatedContainerLevels replicatedContainerLevels;
 
     @PostConstruct
     public void setHandlers() {
@@ -34,8 +40,12 @@ public class ContainerHandlerFactory {
         coffeeMachineConfig.getContainerConfigs()
                 .forEach(container -> {
                     handlers.put(container.getIngredientName(),
-                            new ContainerHandler(container.getIngredientName(), containerRepository));
+                            new ContainerHandler(container.getIngredientName(), containerRepository,
+                                    containerLevelCache, replicatedContainerLevels));
                 });
+        // levels merged from other nodes are persisted and cached like local changes.
+        if (replicatedContainerLevels != null)
+            replicatedContainerLevels.onLevelChanged(ingredientName -> getHandler(ingredientName).refresh());
     }
 
     public ContainerHandler getHandler(String ingredientName) {
@@ -0,0 +1,19 @@
+package server.containers;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * ContainerLevel is an immutable copy of a Container as published to ContainerLevelCache.
+ * Unlike the Container entity it can be shared between readers without any of them seeing another's changes.
+ * outletCredit is what outlets hold of the ingredient as credit, it is still in the machine
+ * but not part of currentLevel. Please See: IngredientCreditPools
+ */
+@Getter
+@AllArgsConstructor
+public class ContainerLevel {
+    private final String ingredientName;
+    private final int capacity;
+    private final int currentLevel;
+    private final int outletCredit;
+}
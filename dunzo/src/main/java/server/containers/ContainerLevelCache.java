@@ -0,0 +1,85 @@
+package server.containers;
+
+import com.google.common.collect.ImmutableMap;
+import org.springframework.stereotype.Service;
+import server.database.models.Container;
+import server.exceptions.IngredientNotFoundException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * ContainerLevelCache keeps a read optimized copy of every container level so that status screens,
+ * low stock checks and dashboards never have to hit the database.
+ * ContainerHandlers publish the container after every add/subtract, readers get an immutable snapshot
+ * without taking any lock. The cache holds one entry per configured container, so it is bounded by the config.
+ * Levels are cached as immutable ContainerLevels, so handing the same one to every reader is safe.
+ * Outlets take from their credit without going through the ContainerHandlers, so the credit is read
+ * when a level is served and moving credit doesn't change the version.
+ * <p>
+ * Please See: ContainerHandler
+ */
+@Service
+public class ContainerLevelCache {
+    private final AtomicReference<Snapshot> snapshot =
+            new AtomicReference<>(new Snapshot(0, ImmutableMap.of()));
+    // credit held by outlets of an ingredient, only set when IngredientCreditPools are enabled.
+    private volatile ToIntFunction<String> outletCredit;
+
+    public void setOutletCredit(ToIntFunction<String> outletCredit) {
+        this.outletCredit = outletCredit;
+    }
+
+    /**
+     * Publish the latest state of a container, a copy is taken so later changes to the entity are not visible.
+     */
+    public void update(Container container) {
+        ContainerLevel copy = new ContainerLevel(container.getIngredientName(),
+                container.getCapacity(),
+                container.getCurrentLevel(),
+                0);
+        while (true) {
+            Snapshot current = snapshot.get();
+            Map<String, ContainerLevel> containers = new LinkedHashMap<>(current.containers);
+            containers.put(copy.getIngredientName(), copy);
+            if (snapshot.compareAndSet(current, new Snapshot(current.version + 1, ImmutableMap.copyOf(containers)))) {
+                return;
+            }
+        }
+    }
+
+    public ContainerLevelSnapshot getAll() {
+        Snapshot current = snapshot.get();
+        Collection<ContainerLevel> containers = current.containers.values();
+        if (outletCredit != null) {
+            containers = containers.stream().map(this::withOutletCredit).collect(Collectors.toList());
+        }
+        return new ContainerLevelSnapshot(current.version, Collections.unmodifiableCollection(containers));
+    }
+
+    public ContainerLevel get(String ingredientName) {
+        ContainerLevel container = snapshot.get().containers.get(ingredientName);
+        if (container == null) throw new IngredientNotFoundException("No such ingredient " + ingredientName);
+        return outletCredit == null ? container : withOutletCredit(container);
+    }
+
+    private ContainerLevel withOutletCredit(ContainerLevel container) {
+        return new ContainerLevel(container.getIngredientName(), container.getCapacity(), container.getCurrentLevel(),
+                outletCredit.applyAsInt(container.getIngredientName()));
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final ImmutableMap<String, ContainerLevel> containers;
+
+        private Snapshot(long version, ImmutableMap<String, ContainerLevel> containers) {
+            this.version = version;
+            this.containers = containers;
+        }
+    }
+}
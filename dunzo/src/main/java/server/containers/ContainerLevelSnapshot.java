@@ -0,0 +1,17 @@
+package server.containers;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collection;
+
+/**
+ * ContainerLevelSnapshot is an immutable view of all container levels at a point in time.
+ * Version increases by one on every change, so pollers can cheaply tell whether anything changed.
+ */
+@Getter
+@AllArgsConstructor
+public class ContainerLevelSnapshot {
+    private final long version;
+    private final Collection<ContainerLevel> containers;
+}
@@ -0,0 +1,138 @@
+package server.containers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import server.configs.CoffeeMachineConfig;
+import server.configs.ContainerConfig;
+import server.exceptions.IngredientNotAvailableException;
+import server.exceptions.IngredientNotFoundException;
+import server.exceptions.InvalidOutletException;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IngredientCreditPools lets every outlet hold a local credit of each ingredient, enabled with credit.enabled=true.
+ * Credit is drawn from the central container through its ContainerHandler in chunks of upto credit.chunkServings servings,
+ * after which reservations are served from the outlet's own credit without handing off to the ContainerHandler's thread.
+ * <p>
+ * When the central container can't give even a single serving any more, the credit of all outlets is returned to it
+ * and only the exact quantity is reserved, so nothing is stranded in other outlets when stock runs low.
+ * Credit held by outlets is not part of the container's current level, see outstanding().
+ * ContainerLevelCache serves it next to the level, so the stock in credit doesn't vanish from status screens.
+ * Drawing a chunk into an outlet's credit and reclaiming all credit both run on the ContainerHandler's thread,
+ * so a reclaim never misses a chunk on its way from the container to an outlet.
+ * <p>
+ * Only the outlet's own thread reserves from its credit, other threads only ever take all of it back,
+ * so a slot sees no contention in the common case.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "credit.enabled", havingValue = "true")
+public class IngredientCreditPools {
+    @Autowired
+    private CoffeeMachineConfig coffeeMachineConfig;
+    @Autowired
+    private ContainerHandlerFactory containerHandlerFactory;
+    @Autowired
+    private ContainerLevelCache containerLevelCache;
+    @Value("${credit.chunkServings:4}")
+    private int chunkServings;
+
+    // credits.get(outletNumber - 1).get(ingredientName) is the credit an outlet holds of an ingredient.
+    private List<Map<String, AtomicInteger>> credits = new ArrayList<>();
+
+    @PostConstruct
+    private void setup() {
+        for (int i = 0; i < coffeeMachineConfig.getOutLets(); i++) {
+            Map<String, AtomicInteger> outletCredits = new HashMap<>();
+            for (ContainerConfig containerConfig : coffeeMachineConfig.getContainerConfigs()) {
+                outletCredits.put(containerConfig.getIngredientName(), new AtomicInteger());
+            }
+            credits.add(outletCredits);
+        }
+        containerLevelCache.setOutletCredit(this::outstanding);
+    }
+
+    /**
+     * Reserve quantity of an ingredient for an outlet, to be called from the outlet's own thread.
+     * It will throw CompletionException caused by IngredientNotAvailableException if the ingredient is not available.
+     */
+    public void reserve(long orderId, int outletNumber, String ingredientName, int quantity) {
+        AtomicInteger credit = credit(outletNumber, ingredientName);
+        if (take(credit, quantity)) return;
+
+        ContainerHandler handler = containerHandlerFactory.getHandler(ingredientName);
+        try {
+            handler.subtractUpTo(orderId, quantity * chunkServings, quantity, credit::addAndGet).join();
+            // can only fail if another outlet reclaimed the credit in the meantime.
+            if (take(credit, quantity)) return;
+        } catch (CompletionException ex) {
+            if (!(ex.getCause() instanceof IngredientNotAvailableException)) throw ex;
+        }
+
+        log.info("Running low on {}, reclaiming credit of all outlets", ingredientName);
+        reclaim(orderId, ingredientName).join();
+        handler.subtract(orderId, quantity).join();
+    }
+
+    /**
+     * Give back quantity of an ingredient to the outlet's credit, eg: when a recipe couldn't be fully reserved.
+     */
+    public void release(int outletNumber, String ingredientName, int quantity) {
+        credit(outletNumber, ingredientName).addAndGet(quantity);
+    }
+
+    /**
+     * Return the credit of an ingredient held by all the outlets to the central container.
+     *
+     * @return future which completes once the credit is added back to the container.
+     */
+    public CompletableFuture<?> reclaim(long orderId, String ingredientName) {
+        return containerHandlerFactory.getHandler(ingredientName).add(orderId, () -> {
+            int reclaimed = 0;
+            for (int i = 0; i < credits.size(); i++) {
+                reclaimed += credit(i + 1, ingredientName).getAndSet(0);
+            }
+            return reclaimed;
+        });
+    }
+
+    /**
+     * @return quantity of an ingredient held as credit by all the outlets, ie: not part of the container's level.
+     */
+    public int outstanding(String ingredientName) {
+        int outstanding = 0;
+        for (int i = 0; i < credits.size(); i++) {
+            outstanding += credit(i + 1, ingredientName).get();
+        }
+        return outstanding;
+    }
+
+    private AtomicInteger credit(int outletNumber, String ingredientName) {
+        if (outletNumber > credits.size() || outletNumber <= 0) {
+            throw new InvalidOutletException("invalid outlet number " + outletNumber +
+                    ", total outlets " + credits.size());
+        }
+        AtomicInteger credit = credits.get(outletNumber - 1).get(ingredientName);
+        if (credit == null) throw new IngredientNotFoundException("No such ingredient " + ingredientName);
+        return credit;
+    }
+
+    private static boolean take(AtomicInteger credit, int quantity) {
+        while (true) {
+            int current = credit.get();
+            if (current < quantity) return false;
+            if (credit.compareAndSet(current, current - quantity)) return true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package server.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import server.CoffeeMachine;
+import server.admission.AdmissionStats;
+import server.database.models.Container;
+import server.exceptions.IngredientNotFoundException;
+import server.exceptions.InvalidCapacityException;
+import server.exceptions.InvalidOutletException;
+import server.exceptions.RecipeNotFoundException;
+import server.requests.DispenseBeverageRequest;
+import server.requests.RefillIngredientRequest;
+import server.responses.DispenseBeverageResponse;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * CoffeeMachineController accepts dispense and refill requests as JSON over HTTP.
+ * Responses are completed asynchronously, the servlet thread is not held while a beverage is brewed.
+ * The current admission limit and counters of every outlet are served on /admission.
+ */
+@RestController
+public class CoffeeMachineController {
+    @Autowired
+    private CoffeeMachine coffeeMachine;
+
+    @PostMapping("/dispense")
+    public CompletableFuture<DispenseBeverageResponse> dispense(@RequestBody DispenseBeverageRequest request) {
+        return coffeeMachine.dispense(request);
+    }
+
+    @PostMapping("/refill")
+    public CompletableFuture<Container> refill(@RequestBody RefillIngredientRequest request) {
+        return coffeeMachine.refillAsync(request);
+    }
+
+    @GetMapping("/admission")
+    public List<AdmissionStats> getAdmissionStats() {
+        return coffeeMachine.getAdmissionStats();
+    }
+
+    @ExceptionHandler({InvalidOutletException.class, InvalidCapacityException.class})
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String handleBadRequest(RuntimeException ex) {
+        return ex.getMessage();
+    }
+
+    @ExceptionHandler({RecipeNotFoundException.class, IngredientNotFoundException.class})
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public String handleNotFound(RuntimeException ex) {
+        return ex.getMessage();
+    }
+}
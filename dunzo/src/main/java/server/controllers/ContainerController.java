@@ -0,0 +1,39 @@
+package server.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import server.containers.ContainerLevel;
+import server.containers.ContainerLevelCache;
+import server.containers.ContainerLevelSnapshot;
+import server.exceptions.IngredientNotFoundException;
+
+/**
+ * ContainerController serves container levels for status screens and dashboards.
+ * All reads are served from ContainerLevelCache and never touch the database or the ContainerHandlers.
+ */
+@RestController
+public class ContainerController {
+    @Autowired
+    private ContainerLevelCache containerLevelCache;
+
+    @GetMapping("/containers")
+    public ContainerLevelSnapshot getContainers() {
+        return containerLevelCache.getAll();
+    }
+
+    @GetMapping("/containers/{ingredientName}")
+    public ContainerLevel getContainer(@PathVariable String ingredientName) {
+        return containerLevelCache.get(ingredientName);
+    }
+
+    @ExceptionHandler(IngredientNotFoundException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public String handleIngredientNotFound(IngredientNotFoundException ex) {
+        return ex.getMessage();
+    }
+}
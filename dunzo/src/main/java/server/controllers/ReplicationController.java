@@ -0,0 +1,31 @@
+package server.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+import server.replication.ContainerLevelsDelta;
+import server.replication.HttpGossipTransport;
+
+/**
+ * ReplicationController is the receiving side of HttpGossipTransport, other instances post their gossip
+ * and pull this node's full state through it. Only present when replicating over HTTP.
+ */
+@RestController
+@ConditionalOnExpression("${replication.enabled:false} and '${replication.transport:http}' == 'http'")
+public class ReplicationController {
+    @Autowired
+    private HttpGossipTransport httpGossipTransport;
+
+    @PostMapping("/replication/gossip")
+    public void gossip(@RequestBody ContainerLevelsDelta delta) {
+        httpGossipTransport.receive(delta);
+    }
+
+    @GetMapping("/replication/state")
+    public ContainerLevelsDelta getState() {
+        return httpGossipTransport.state();
+    }
+}
@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class InvalidSnapshotException extends RuntimeException {
+    public InvalidSnapshotException(String message) {
+        super(message);
+    }
+}
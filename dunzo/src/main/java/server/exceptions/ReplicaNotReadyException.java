@@ -0,0 +1,7 @@
+package server.exceptions;
+
+public class ReplicaNotReadyException extends RuntimeException {
+    public ReplicaNotReadyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,34 @@
+package server.netty;
+
+/**
+ * Wire format of the binary order endpoint, all numbers are big endian.
+ * Every frame is prefixed with the length of its body as an int.
+ * <p>
+ * Request : type byte, requestId long, then
+ * 1. DISPENSE : recipeIndex short, outletNumber short
+ * 2. REFILL : ingredientIndex short, quantity int
+ * where recipeIndex and ingredientIndex are indexes into CoffeeMachineConfig's recipes and containerConfigs.
+ * <p>
+ * Response : requestId long, status byte, retryAfterMillis int, message (UTF-8 length short followed by the bytes).
+ * <p>
+ * Many requests can be sent on a connection without waiting for their responses.
+ * Every response is written as soon as its request completes, so responses can come back in a different order
+ * than the requests were sent and requestId is used to match them.
+ */
+public final class BinaryProtocol {
+    public static final byte DISPENSE = 1;
+    public static final byte REFILL = 2;
+
+    // dispensed or refilled.
+    public static final byte OK = 0;
+    // not dispensed as ingredients were not available.
+    public static final byte REJECTED = 1;
+    // outlet is busy, retry after retryAfterMillis.
+    public static final byte BUSY = 2;
+    public static final byte ERROR = 3;
+
+    public static final int MAX_FRAME_BYTES = 1024;
+
+    private BinaryProtocol() {
+    }
+}
@@ -0,0 +1,19 @@
+package server.netty;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A decoded request of the binary order endpoint, fields not used by the request's type are zero.
+ * Please See: BinaryProtocol
+ */
+@Getter
+@AllArgsConstructor
+public class BinaryRequest {
+    private byte type;
+    private long requestId;
+    // recipe index for DISPENSE, ingredient index for REFILL
+    private int index;
+    private int outletNumber;
+    private int quantity;
+}
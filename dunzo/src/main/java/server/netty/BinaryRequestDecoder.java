@@ -0,0 +1,30 @@
+package server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+
+/**
+ * Decodes a length stripped frame into a BinaryRequest.
+ */
+public class BinaryRequestDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf frame, List<Object> out) {
+        byte type = frame.readByte();
+        long requestId = frame.readLong();
+        switch (type) {
+            case BinaryProtocol.DISPENSE:
+                out.add(new BinaryRequest(type, requestId, frame.readShort(), frame.readShort(), 0));
+                break;
+            case BinaryProtocol.REFILL:
+                out.add(new BinaryRequest(type, requestId, frame.readShort(), 0, frame.readInt()));
+                break;
+            default:
+                throw new CorruptedFrameException("Unknown request type " + type + " for request " + requestId);
+        }
+    }
+}
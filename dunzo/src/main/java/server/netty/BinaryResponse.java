@@ -0,0 +1,17 @@
+package server.netty;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A response of the binary order endpoint.
+ * Please See: BinaryProtocol
+ */
+@Getter
+@AllArgsConstructor
+public class BinaryResponse {
+    private long requestId;
+    private byte status;
+    private int retryAfterMillis;
+    private String message;
+}
@@ -0,0 +1,25 @@
+package server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a BinaryResponse into a length prefixed frame.
+ */
+public class BinaryResponseEncoder extends MessageToByteEncoder<BinaryResponse> {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, BinaryResponse response, ByteBuf out) {
+        byte[] message = response.getMessage() == null ? new byte[0]
+                : response.getMessage().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(Long.BYTES + 1 + Integer.BYTES + Short.BYTES + message.length);
+        out.writeLong(response.getRequestId());
+        out.writeByte(response.getStatus());
+        out.writeInt(response.getRetryAfterMillis());
+        out.writeShort(message.length);
+        out.writeBytes(message);
+    }
+}
@@ -0,0 +1,132 @@
+package server.netty;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+import server.CoffeeMachine;
+import server.configs.CoffeeMachineConfig;
+import server.exceptions.IngredientNotFoundException;
+import server.exceptions.RecipeNotFoundException;
+import server.requests.DispenseBeverageRequest;
+import server.requests.RefillIngredientRequest;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CoffeeMachineRequestHandler hands every BinaryRequest to the CoffeeMachine without waiting for it to complete
+ * and writes the response whenever its future completes, so many requests can be in-flight on a connection.
+ * It never blocks the event loop.
+ * <p>
+ * A connection stops being read once maxInFlightPerConnection of its requests are in-flight, or while the client
+ * doesn't read its responses fast enough for the channel to stay writable, and is read again once both clear.
+ * Frames already received when reading stops are still handled, so the limit can be exceeded by one read's worth.
+ */
+@Slf4j
+@ChannelHandler.Sharable
+public class CoffeeMachineRequestHandler extends SimpleChannelInboundHandler<BinaryRequest> {
+    // requests of a connection in-flight, only touched from the connection's event loop.
+    private static final AttributeKey<AtomicInteger> IN_FLIGHT = AttributeKey.valueOf("inFlight");
+
+    private final CoffeeMachine coffeeMachine;
+    private final CoffeeMachineConfig coffeeMachineConfig;
+    private final int maxInFlightPerConnection;
+
+    public CoffeeMachineRequestHandler(CoffeeMachine coffeeMachine, CoffeeMachineConfig coffeeMachineConfig,
+                                       int maxInFlightPerConnection) {
+        this.coffeeMachine = coffeeMachine;
+        this.coffeeMachineConfig = coffeeMachineConfig;
+        this.maxInFlightPerConnection = maxInFlightPerConnection;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, BinaryRequest request) {
+        inFlight(ctx.channel()).incrementAndGet();
+        updateAutoRead(ctx.channel());
+        CompletableFuture<BinaryResponse> response;
+        try {
+            response = request.getType() == BinaryProtocol.DISPENSE ? dispense(request) : refill(request);
+        } catch (RuntimeException ex) {
+            response = CompletableFuture.completedFuture(error(request, ex));
+        }
+        response.exceptionally(throwable -> error(request, throwable))
+                .thenAccept(binaryResponse -> {
+                    // futures complete on the outlet and container threads, hop back to the event loop.
+                    if (ctx.executor().inEventLoop()) {
+                        respond(ctx, binaryResponse);
+                    } else {
+                        ctx.executor().execute(() -> respond(ctx, binaryResponse));
+                    }
+                });
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        updateAutoRead(ctx.channel());
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.error("Closing connection {} after unexpected error", ctx.channel().remoteAddress(), cause);
+        ctx.close();
+    }
+
+    private void respond(ChannelHandlerContext ctx, BinaryResponse response) {
+        ctx.writeAndFlush(response);
+        inFlight(ctx.channel()).decrementAndGet();
+        updateAutoRead(ctx.channel());
+    }
+
+    private void updateAutoRead(Channel channel) {
+        boolean autoRead = inFlight(channel).get() < maxInFlightPerConnection && channel.isWritable();
+        if (channel.config().isAutoRead() != autoRead) channel.config().setAutoRead(autoRead);
+    }
+
+    private static AtomicInteger inFlight(Channel channel) {
+        Attribute<AtomicInteger> attribute = channel.attr(IN_FLIGHT);
+        AtomicInteger inFlight = attribute.get();
+        if (inFlight == null) {
+            inFlight = new AtomicInteger();
+            attribute.set(inFlight);
+        }
+        return inFlight;
+    }
+
+    private CompletableFuture<BinaryResponse> dispense(BinaryRequest request) {
+        if (request.getIndex() < 0 || request.getIndex() >= coffeeMachineConfig.getRecipes().size()) {
+            throw new RecipeNotFoundException("Recipe " + request.getIndex() + " is not found");
+        }
+        String recipeName = coffeeMachineConfig.getRecipes().get(request.getIndex()).getName();
+        return coffeeMachine.dispense(new DispenseBeverageRequest(recipeName, request.getOutletNumber()))
+                .thenApply(response -> {
+                    if (response.getBusy()) {
+                        return new BinaryResponse(request.getRequestId(), BinaryProtocol.BUSY,
+                                response.getRetryAfterMillis().intValue(), response.getErrorMsg());
+                    }
+                    return new BinaryResponse(request.getRequestId(),
+                            response.getDispensed() ? BinaryProtocol.OK : BinaryProtocol.REJECTED,
+                            0, response.getErrorMsg());
+                });
+    }
+
+    private CompletableFuture<BinaryResponse> refill(BinaryRequest request) {
+        if (request.getIndex() < 0 || request.getIndex() >= coffeeMachineConfig.getContainerConfigs().size()) {
+            throw new IngredientNotFoundException("No such ingredient " + request.getIndex());
+        }
+        String ingredientName = coffeeMachineConfig.getContainerConfigs().get(request.getIndex()).getIngredientName();
+        return coffeeMachine.refillAsync(new RefillIngredientRequest(ingredientName, request.getQuantity()))
+                .thenApply(__ -> new BinaryResponse(request.getRequestId(), BinaryProtocol.OK, 0, null));
+    }
+
+    private BinaryResponse error(BinaryRequest request, Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        return new BinaryResponse(request.getRequestId(), BinaryProtocol.ERROR, 0, cause.getMessage());
+    }
+}
@@ -0,0 +1,91 @@
+package server.netty;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import server.CoffeeMachine;
+import server.configs.CoffeeMachineConfig;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetSocketAddress;
+
+/**
+ * NettyServer serves the binary order endpoint next to the HTTP one, enabled with netty.enabled=true.
+ * It is meant for order gateways submitting orders at high rates, where JSON over HTTP costs more than the order itself.
+ * <p>
+ * Please See: BinaryProtocol
+ */
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "netty.enabled", havingValue = "true")
+public class NettyServer {
+    @Autowired
+    private CoffeeMachine coffeeMachine;
+    @Autowired
+    private CoffeeMachineConfig coffeeMachineConfig;
+    @Value("${netty.port:9090}")
+    private int port;
+    // 0 lets netty pick, ie: twice the number of cores.
+    @Value("${netty.workerThreads:0}")
+    private int workerThreads;
+    @Value("${netty.maxInFlightPerConnection:256}")
+    private int maxInFlightPerConnection;
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel channel;
+
+    @PostConstruct
+    private void start() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(workerThreads);
+        CoffeeMachineRequestHandler handler = new CoffeeMachineRequestHandler(coffeeMachine, coffeeMachineConfig,
+                maxInFlightPerConnection);
+        channel = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        configure(ch.pipeline(), handler);
+                    }
+                })
+                .bind(port)
+                .sync()
+                .channel();
+        log.info("Binary order endpoint listening on port {}", getPort());
+    }
+
+    @PreDestroy
+    private void stop() {
+        channel.close().syncUninterruptibly();
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    static void configure(ChannelPipeline pipeline, CoffeeMachineRequestHandler handler) {
+        pipeline.addLast(new LengthFieldBasedFrameDecoder(BinaryProtocol.MAX_FRAME_BYTES,
+                0, Integer.BYTES, 0, Integer.BYTES))
+                .addLast(new BinaryRequestDecoder())
+                .addLast(new BinaryResponseEncoder())
+                .addLast(handler);
+    }
+
+    public int getPort() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+}
@@ -0,0 +1,25 @@
+package server.orders;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * PendingOrder is a dispense request which has been accepted by an outlet but is not complete yet.
+ * 1. QUEUED : Order is waiting for its outlet, no ingredient has been reserved for it yet.
+ * 2. IN_FLIGHT : All ingredients are reserved and the beverage is being brewed.
+ */
+@Getter
+@AllArgsConstructor
+public class PendingOrder {
+    public enum State {
+        QUEUED,
+        IN_FLIGHT
+    }
+
+    private long orderId;
+    private String recipeName;
+    private int outletNumber;
+    @Setter
+    private volatile State state;
+}
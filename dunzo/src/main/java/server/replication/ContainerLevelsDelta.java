@@ -0,0 +1,22 @@
+package server.replication;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * ContainerLevelsDelta is the gossip message exchanged between nodes.
+ * It carries, per ingredient, the part of the PNCounter state that the receiver should merge
+ * and the budget the source node is short of, which receivers with spare budget transfer to it.
+ */
+@Getter
+@AllArgsConstructor
+@NoArgsConstructor
+public class ContainerLevelsDelta {
+    private String sourceNodeId;
+    private Map<String, PNCounter> counters;
+    // ingredient name -> budget the source node wants
+    private Map<String, Integer> wanted;
+}
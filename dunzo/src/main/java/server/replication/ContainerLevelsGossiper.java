@@ -0,0 +1,70 @@
+package server.replication;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ContainerLevelsGossiper periodically broadcasts the local changes of ReplicatedContainerLevels to the other nodes
+ * and merges whatever the other nodes broadcast.
+ * Every fullSyncEvery rounds the full replica state is sent instead of a delta so that nodes which missed
+ * a delta, or joined late, still converge.
+ * Before the first round the node pulls the full state of the other nodes to rehydrate its own slots.
+ */
+@Slf4j
+public class ContainerLevelsGossiper {
+    private final ReplicatedContainerLevels levels;
+    private final GossipTransport transport;
+    private final long intervalMs;
+    private final int fullSyncEvery;
+    private ScheduledExecutorService executor;
+    private long round;
+
+    public ContainerLevelsGossiper(ReplicatedContainerLevels levels, GossipTransport transport,
+                                   long intervalMs, int fullSyncEvery) {
+        this.levels = levels;
+        this.transport = transport;
+        this.intervalMs = intervalMs;
+        this.fullSyncEvery = fullSyncEvery;
+        transport.register(levels.getNodeId(), levels::merge, levels::fullState);
+    }
+
+    public void start() {
+        rehydrate();
+        log.info("Starting gossip for node {} every {} ms", levels.getNodeId(), intervalMs);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("gossip-" + levels.getNodeId()).build());
+        executor.scheduleWithFixedDelay(this::gossip, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * Pull the state of the other nodes and let ReplicatedContainerLevels accept local writes.
+     */
+    public void rehydrate() {
+        List<ContainerLevelsDelta> states = transport.pullStates(levels.getNodeId());
+        log.info("Rehydrating node {} from {} peers", levels.getNodeId(), states.size());
+        levels.rehydrate(states);
+    }
+
+    /**
+     * Run a single gossip round, called periodically once started.
+     */
+    public void gossip() {
+        try {
+            boolean fullSync = fullSyncEvery > 0 && ++round % fullSyncEvery == 0;
+            ContainerLevelsDelta delta = fullSync ? levels.fullState() : levels.delta();
+            if (!delta.getCounters().isEmpty() || !delta.getWanted().isEmpty()) transport.broadcast(delta);
+        } catch (Exception ex) {
+            // never let a failed round kill the scheduled task.
+            log.error("Gossip round failed for node {}", levels.getNodeId(), ex);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package server.replication;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * GossipTransport delivers ContainerLevelsDelta messages from one node to all the other nodes.
+ * Delivery may be delayed, duplicated or reordered, merging PNCounters tolerates all of these.
+ */
+public interface GossipTransport {
+    /**
+     * @param receiver merges deltas broadcast by other nodes.
+     * @param state    supplies this node's full state when another node pulls it.
+     */
+    void register(String nodeId, Consumer<ContainerLevelsDelta> receiver, Supplier<ContainerLevelsDelta> state);
+
+    void broadcast(ContainerLevelsDelta delta);
+
+    /**
+     * @return full state of every other reachable node, used by a node to rehydrate its own slots after a restart.
+     */
+    List<ContainerLevelsDelta> pullStates(String nodeId);
+}
@@ -0,0 +1,109 @@
+package server.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * HttpGossipTransport gossips with the other instances of the service over HTTP, as JSON.
+ * Deltas are posted to every peer without waiting for them, a peer that is down simply misses them
+ * and catches up with the next full sync. Full states are pulled from the peers that answer within the timeout,
+ * so a node restarted while all its peers are down starts with empty slots of its own.
+ * <p>
+ * Peers serve the other side through ReplicationController.
+ */
+@Slf4j
+public class HttpGossipTransport implements GossipTransport {
+    static final String GOSSIP_PATH = "/replication/gossip";
+    static final String STATE_PATH = "/replication/state";
+
+    private final List<URI> peers;
+    private final ObjectMapper objectMapper;
+    private final Duration timeout;
+    private final HttpClient client;
+    private volatile Consumer<ContainerLevelsDelta> receiver = __ -> {
+    };
+    private volatile Supplier<ContainerLevelsDelta> state;
+
+    public HttpGossipTransport(List<URI> peers, ObjectMapper objectMapper, Duration timeout) {
+        this.peers = peers;
+        this.objectMapper = objectMapper;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    @Override
+    public void register(String nodeId, Consumer<ContainerLevelsDelta> receiver,
+                         Supplier<ContainerLevelsDelta> state) {
+        this.receiver = receiver;
+        this.state = state;
+    }
+
+    @Override
+    public void broadcast(ContainerLevelsDelta delta) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(delta);
+        } catch (IOException ex) {
+            log.error("Could not serialize gossip of node {}", delta.getSourceNodeId(), ex);
+            return;
+        }
+        for (URI peer : peers) {
+            HttpRequest request = HttpRequest.newBuilder(peer.resolve(GOSSIP_PATH))
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, throwable) -> {
+                        if (throwable != null) log.debug("Could not gossip to {}", peer, throwable);
+                    });
+        }
+    }
+
+    @Override
+    public List<ContainerLevelsDelta> pullStates(String nodeId) {
+        List<ContainerLevelsDelta> states = new ArrayList<>();
+        for (URI peer : peers) {
+            HttpRequest request = HttpRequest.newBuilder(peer.resolve(STATE_PATH)).timeout(timeout).GET().build();
+            try {
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 200) {
+                    log.warn("Could not pull state from {}, status {}", peer, response.statusCode());
+                    continue;
+                }
+                states.add(objectMapper.readValue(response.body(), ContainerLevelsDelta.class));
+            } catch (IOException ex) {
+                log.warn("Could not pull state from {}: {}", peer, ex.toString());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Merge a delta posted by a peer.
+     */
+    public void receive(ContainerLevelsDelta delta) {
+        receiver.accept(delta);
+    }
+
+    /**
+     * @return full state of this node, served to peers pulling it.
+     */
+    public ContainerLevelsDelta state() {
+        return state.get();
+    }
+}
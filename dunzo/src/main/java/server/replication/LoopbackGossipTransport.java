@@ -0,0 +1,41 @@
+package server.replication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * LoopbackGossipTransport delivers gossip between nodes living in the same JVM.
+ * It is used to run multiple replicas in-process, mostly for tests.
+ * Registering a node id again replaces the earlier registration, like a restarted node would.
+ */
+public class LoopbackGossipTransport implements GossipTransport {
+    private final Map<String, Consumer<ContainerLevelsDelta>> receivers = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<ContainerLevelsDelta>> states = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(String nodeId, Consumer<ContainerLevelsDelta> receiver,
+                         Supplier<ContainerLevelsDelta> state) {
+        receivers.put(nodeId, receiver);
+        states.put(nodeId, state);
+    }
+
+    @Override
+    public void broadcast(ContainerLevelsDelta delta) {
+        receivers.forEach((nodeId, receiver) -> {
+            if (!nodeId.equals(delta.getSourceNodeId())) receiver.accept(delta);
+        });
+    }
+
+    @Override
+    public List<ContainerLevelsDelta> pullStates(String nodeId) {
+        List<ContainerLevelsDelta> pulled = new ArrayList<>();
+        states.forEach((otherNodeId, state) -> {
+            if (!otherNodeId.equals(nodeId)) pulled.add(state.get());
+        });
+        return pulled;
+    }
+}
@@ -0,0 +1,100 @@
+package server.replication;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PNCounter is a state based CRDT counter that can be incremented and decremented concurrently on multiple nodes.
+ * Every node owns one increment slot and one decrement slot and only ever writes to its own slots,
+ * value of the counter is the sum of all increments minus the sum of all decrements.
+ * Two replicas are merged by taking the slot-wise maximum, so merges are commutative, associative and idempotent
+ * and every replica converges to the same value once it has seen the same updates.
+ * <p>
+ * On top of the plain PN-counter every node also has a budget, the quantity it is allowed to decrement without
+ * asking any other node. A node's budget is whatever it has incremented minus whatever it has decremented,
+ * adjusted by the transfers it has sent to or received from other nodes. Transfers are grow-only as well,
+ * so a node can never hand out more than it owns and the value of the counter can never go below zero.
+ * The slots are serialized as they are for gossip between processes, see HttpGossipTransport.
+ */
+@JsonAutoDetect(fieldVisibility = JsonAutoDetect.Visibility.ANY, getterVisibility = JsonAutoDetect.Visibility.NONE)
+public class PNCounter {
+    private final Map<String, Long> increments = new HashMap<>();
+    private final Map<String, Long> decrements = new HashMap<>();
+    // transfers.get(from).get(to) is the total budget ever moved from node "from" to node "to".
+    private final Map<String, Map<String, Long>> transfers = new HashMap<>();
+
+    public synchronized void increment(String nodeId, long amount) {
+        increments.merge(nodeId, amount, Long::sum);
+    }
+
+    /**
+     * @return false if nodeId doesn't have enough budget to decrement the counter by amount.
+     */
+    public synchronized boolean tryDecrement(String nodeId, long amount) {
+        if (budget(nodeId) < amount) return false;
+        decrements.merge(nodeId, amount, Long::sum);
+        return true;
+    }
+
+    /**
+     * @return false if fromNodeId doesn't have enough budget to hand over amount to toNodeId.
+     */
+    public synchronized boolean transfer(String fromNodeId, String toNodeId, long amount) {
+        if (budget(fromNodeId) < amount) return false;
+        transfers.computeIfAbsent(fromNodeId, __ -> new HashMap<>()).merge(toNodeId, amount, Long::sum);
+        return true;
+    }
+
+    public synchronized long value() {
+        long value = 0;
+        for (long increment : increments.values()) value += increment;
+        for (long decrement : decrements.values()) value -= decrement;
+        return value;
+    }
+
+    public synchronized long budget(String nodeId) {
+        long budget = increments.getOrDefault(nodeId, 0L) - decrements.getOrDefault(nodeId, 0L);
+        for (Map.Entry<String, Map<String, Long>> from : transfers.entrySet()) {
+            if (from.getKey().equals(nodeId)) {
+                for (long sent : from.getValue().values()) budget -= sent;
+            } else {
+                budget += from.getValue().getOrDefault(nodeId, 0L);
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Merge the state of another replica into this one by taking slot-wise maximum.
+     */
+    public synchronized void merge(PNCounter other) {
+        PNCounter snapshot = other.copy();
+        snapshot.increments.forEach((node, count) -> increments.merge(node, count, Math::max));
+        snapshot.decrements.forEach((node, count) -> decrements.merge(node, count, Math::max));
+        snapshot.transfers.forEach((from, sent) -> {
+            Map<String, Long> local = transfers.computeIfAbsent(from, __ -> new HashMap<>());
+            sent.forEach((to, count) -> local.merge(to, count, Math::max));
+        });
+    }
+
+    /**
+     * @return a counter holding only the slots owned by nodeId, used to build deltas for gossip.
+     */
+    public synchronized PNCounter slotsOf(String nodeId) {
+        PNCounter delta = new PNCounter();
+        if (increments.containsKey(nodeId)) delta.increments.put(nodeId, increments.get(nodeId));
+        if (decrements.containsKey(nodeId)) delta.decrements.put(nodeId, decrements.get(nodeId));
+        if (transfers.containsKey(nodeId)) delta.transfers.put(nodeId, new HashMap<>(transfers.get(nodeId)));
+        return delta;
+    }
+
+    public synchronized PNCounter copy() {
+        PNCounter copy = new PNCounter();
+        copy.increments.putAll(increments);
+        copy.decrements.putAll(decrements);
+        transfers.forEach((from, sent) -> copy.transfers.put(from, new HashMap<>(sent)));
+        return copy;
+    }
+}
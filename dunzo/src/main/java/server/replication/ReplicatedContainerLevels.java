@@ -0,0 +1,171 @@
+package server.replication;
+
+import lombok.Getter;
+import server.exceptions.IngredientNotFoundException;
+import server.exceptions.ReplicaNotReadyException;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * ReplicatedContainerLevels holds this node's replica of every container level as a PNCounter.
+ * Reads and reservations are served from the local replica only, without any round trip to other nodes.
+ * A node can only reserve upto its own budget, so two nodes can never reserve the same quantity twice
+ * while the total level still converges on every node through gossip.
+ * <p>
+ * Budget is allotted on demand: when a node can't reserve from its own budget although the stock is there,
+ * it asks for budget in its next gossip and nodes with spare budget transfer part of theirs to it.
+ * <p>
+ * A node's own slots only live in memory, so after a restart it must first pull them back from the other nodes.
+ * Until rehydrate is called local writes wait, otherwise new writes would start again from 0
+ * and be hidden behind the older, larger slot values still held by the other nodes.
+ * <p>
+ * Please See: PNCounter, ContainerLevelsGossiper
+ */
+public class ReplicatedContainerLevels {
+    @Getter
+    private final String nodeId;
+    private final long rehydrateTimeoutMs;
+    private final Map<String, PNCounter> counters = new ConcurrentHashMap<>();
+    // ingredients whose local slots changed since the last delta was taken.
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    // ingredient name -> budget this node is short of.
+    private final Map<String, Integer> wanted = new ConcurrentHashMap<>();
+    private final CountDownLatch rehydrated = new CountDownLatch(1);
+    private volatile Consumer<String> levelChangedListener = __ -> {
+    };
+
+    public ReplicatedContainerLevels(String nodeId, Collection<String> ingredientNames, long rehydrateTimeoutMs) {
+        this.nodeId = nodeId;
+        this.rehydrateTimeoutMs = rehydrateTimeoutMs;
+        ingredientNames.forEach(ingredientName -> counters.put(ingredientName, new PNCounter()));
+    }
+
+    public int value(String ingredientName) {
+        return (int) counter(ingredientName).value();
+    }
+
+    public int budget(String ingredientName) {
+        return (int) counter(ingredientName).budget(nodeId);
+    }
+
+    public void add(String ingredientName, int quantity) {
+        awaitRehydrated();
+        counter(ingredientName).increment(nodeId, quantity);
+        dirty.add(ingredientName);
+    }
+
+    /**
+     * @return false if this node's budget for the ingredient is less than quantity.
+     * If the stock is there but the budget isn't, budget is asked from the other nodes.
+     */
+    public boolean tryReserve(String ingredientName, int quantity) {
+        awaitRehydrated();
+        PNCounter counter = counter(ingredientName);
+        if (!counter.tryDecrement(nodeId, quantity)) {
+            if (counter.value() >= quantity) wanted.merge(ingredientName, quantity, Math::max);
+            return false;
+        }
+        wanted.remove(ingredientName);
+        dirty.add(ingredientName);
+        return true;
+    }
+
+    /**
+     * Hand over part of this node's budget to another node, eg: to a node which is running low.
+     */
+    public boolean transfer(String ingredientName, String toNodeId, int quantity) {
+        awaitRehydrated();
+        if (!counter(ingredientName).transfer(nodeId, toNodeId, quantity)) return false;
+        dirty.add(ingredientName);
+        return true;
+    }
+
+    /**
+     * Merge the states pulled from other nodes, which hold this node's slots as of before a restart,
+     * and start accepting local writes.
+     */
+    public void rehydrate(Collection<ContainerLevelsDelta> states) {
+        states.forEach(this::mergeCounters);
+        rehydrated.countDown();
+    }
+
+    /**
+     * @param listener called with an ingredient name whenever merging changed its level.
+     */
+    public void onLevelChanged(Consumer<String> listener) {
+        levelChangedListener = listener;
+    }
+
+    /**
+     * @return this node's own slots for the ingredients that changed since the last call.
+     */
+    public ContainerLevelsDelta delta() {
+        Map<String, PNCounter> changed = new HashMap<>();
+        for (String ingredientName : counters.keySet()) {
+            if (dirty.remove(ingredientName)) {
+                changed.put(ingredientName, counters.get(ingredientName).slotsOf(nodeId));
+            }
+        }
+        return new ContainerLevelsDelta(nodeId, changed, wanted());
+    }
+
+    /**
+     * @return full replica state, used for periodic anti-entropy so that lost deltas are eventually repaired.
+     */
+    public ContainerLevelsDelta fullState() {
+        Map<String, PNCounter> state = new HashMap<>();
+        counters.forEach((ingredientName, counter) -> state.put(ingredientName, counter.copy()));
+        return new ContainerLevelsDelta(nodeId, state, wanted());
+    }
+
+    public void merge(ContainerLevelsDelta delta) {
+        mergeCounters(delta);
+        // budget is only lent once this node knows its own slots, else it could lend budget it doesn't have.
+        if (rehydrated.getCount() > 0 || delta.getSourceNodeId().equals(nodeId)) return;
+        delta.getWanted().forEach((ingredientName, quantity) -> {
+            if (!counters.containsKey(ingredientName)) return;
+            int budget = budget(ingredientName);
+            if (budget <= 0) return;
+            // lend at least what is asked for, or half of the spare budget if that is more.
+            transfer(ingredientName, delta.getSourceNodeId(), Math.min(budget, Math.max(quantity, budget / 2)));
+        });
+    }
+
+    private void mergeCounters(ContainerLevelsDelta delta) {
+        delta.getCounters().forEach((ingredientName, counter) -> {
+            // ignore ingredients this node is not configured for.
+            if (!counters.containsKey(ingredientName)) return;
+            PNCounter local = counters.get(ingredientName);
+            long before = local.value();
+            local.merge(counter);
+            if (local.value() != before) levelChangedListener.accept(ingredientName);
+        });
+    }
+
+    private Map<String, Integer> wanted() {
+        wanted.entrySet().removeIf(want -> budget(want.getKey()) >= want.getValue());
+        return new HashMap<>(wanted);
+    }
+
+    private void awaitRehydrated() {
+        try {
+            if (rehydrated.await(rehydrateTimeoutMs, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new ReplicaNotReadyException("Replica " + nodeId + " has not rehydrated its own slots yet");
+    }
+
+    private PNCounter counter(String ingredientName) {
+        PNCounter counter = counters.get(ingredientName);
+        if (counter == null) throw new IngredientNotFoundException("No such ingredient " + ingredientName);
+        return counter;
+    }
+}
@@ -0,0 +1,93 @@
+package server.replication;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import server.configs.CoffeeMachineConfig;
+import server.configs.ContainerConfig;
+import server.exceptions.InvalidConfigException;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Active-active replication of container levels, enabled with replication.enabled=true.
+ * When enabled, ContainerHandlers reserve and refill through ReplicatedContainerLevels
+ * and the persisted Container rows follow the converged replicated level.
+ * Every node must be started with its own unique replication.nodeId, and with the other nodes as replication.peers.
+ * <p>
+ * Please See: ReplicatedContainerLevels
+ */
+@Configuration
+@Slf4j
+@ConditionalOnProperty(name = "replication.enabled", havingValue = "true")
+public class ReplicationConfiguration {
+    @Value("${replication.nodeId:}")
+    private String nodeId;
+    @Value("${replication.rehydrateTimeoutMs:5000}")
+    private long rehydrateTimeoutMs;
+    @Value("${replication.gossipIntervalMs:200}")
+    private long gossipIntervalMs;
+    @Value("${replication.fullSyncEvery:10}")
+    private int fullSyncEvery;
+    @Value("${replication.transport:http}")
+    private String transport;
+    @Value("${replication.peers:}")
+    private List<String> peers;
+    @Value("${replication.gossipTimeoutMs:1000}")
+    private long gossipTimeoutMs;
+
+    @PostConstruct
+    private void validate() {
+        if (!"http".equals(transport) && !"loopback".equals(transport))
+            throw new InvalidConfigException("replication.transport should be http or loopback, not " + transport);
+    }
+
+    /**
+     * Gossips with the instances listed in replication.peers, eg: http://coffee-2:8080,http://coffee-3:8080
+     */
+    @Bean
+    @ConditionalOnProperty(name = "replication.transport", havingValue = "http", matchIfMissing = true)
+    public HttpGossipTransport httpGossipTransport(ObjectMapper objectMapper) {
+        // without peers the node would silently replicate with nobody.
+        peers.removeIf(peer -> peer.trim().isEmpty());
+        if (peers.isEmpty())
+            throw new InvalidConfigException("replication.peers is required when replicating over http.");
+        return new HttpGossipTransport(peers.stream().map(String::trim).map(URI::create).collect(Collectors.toList()),
+                objectMapper, Duration.ofMillis(gossipTimeoutMs));
+    }
+
+    /**
+     * Gossips only between nodes living in this JVM, has to be asked for explicitly, eg: for tests.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "replication.transport", havingValue = "loopback")
+    public LoopbackGossipTransport loopbackGossipTransport() {
+        log.warn("Replicating in-process only, other instances of the service will not see this node");
+        return new LoopbackGossipTransport();
+    }
+
+    @Bean
+    public ReplicatedContainerLevels replicatedContainerLevels(CoffeeMachineConfig coffeeMachineConfig) {
+        // two nodes sharing an id would overwrite each other's slots.
+        if (nodeId == null || nodeId.trim().isEmpty())
+            throw new InvalidConfigException("replication.nodeId is required when replication is enabled.");
+        return new ReplicatedContainerLevels(nodeId, coffeeMachineConfig.getContainerConfigs()
+                .stream()
+                .map(ContainerConfig::getIngredientName)
+                .collect(Collectors.toList()), rehydrateTimeoutMs);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public ContainerLevelsGossiper containerLevelsGossiper(ReplicatedContainerLevels replicatedContainerLevels,
+                                                           GossipTransport gossipTransport) {
+        return new ContainerLevelsGossiper(replicatedContainerLevels, gossipTransport,
+                gossipIntervalMs, fullSyncEvery);
+    }
+}
@@ -2,10 +2,18 @@ package server.requests;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
 @AllArgsConstructor
+@NoArgsConstructor
 public class DispenseBeverageRequest {
     private String recipeName;
     private Integer outletNumber;
+    // optional, retries of a request carrying the same key are served the original response instead of brewing again.
+    private String idempotencyKey;
+
+    public DispenseBeverageRequest(String recipeName, Integer outletNumber) {
+        this(recipeName, outletNumber, null);
+    }
 }
@@ -2,9 +2,11 @@ package server.requests;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
 @AllArgsConstructor
+@NoArgsConstructor
 public class RefillIngredientRequest {
     private String ingredientName;
     private Integer quantity;
@@ -8,8 +8,15 @@ import lombok.Getter;
 public class DispenseBeverageResponse {
     private Boolean dispensed;
     private String errorMsg;
+    // true when the outlet was too busy to accept the request, it can be retried after retryAfterMillis.
+    private Boolean busy;
+    private Long retryAfterMillis;
 
     public DispenseBeverageResponse(Boolean dispensed) {
-        this.dispensed = dispensed;
+        this(dispensed, null);
+    }
+
+    public DispenseBeverageResponse(Boolean dispensed, String errorMsg) {
+        this(dispensed, errorMsg, false, null);
     }
 }
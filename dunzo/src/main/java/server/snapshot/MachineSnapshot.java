@@ -0,0 +1,23 @@
+package server.snapshot;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import server.configs.CoffeeMachineConfig;
+import server.orders.PendingOrder;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MachineSnapshot is everything needed for another machine to take over:
+ * the active config, the level of every container and the orders queued or in-flight on every outlet.
+ */
+@Getter
+@AllArgsConstructor
+public class MachineSnapshot {
+    private long takenAtMillis;
+    private CoffeeMachineConfig coffeeMachineConfig;
+    // ingredient name -> current level
+    private Map<String, Integer> containerLevels;
+    private List<PendingOrder> pendingOrders;
+}
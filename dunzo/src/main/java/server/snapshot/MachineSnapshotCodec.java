@@ -0,0 +1,161 @@
+package server.snapshot;
+
+import server.configs.CoffeeMachineConfig;
+import server.configs.ContainerConfig;
+import server.configs.Ingredient;
+import server.configs.Recipe;
+import server.exceptions.InvalidSnapshotException;
+import server.orders.PendingOrder;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MachineSnapshotCodec encodes a MachineSnapshot in a compact binary format.
+ * The config is written in full, container levels are written in the order of the config's containers
+ * and orders refer to their recipe by its index in the config, so names are written only once.
+ * <p>
+ * Format (big endian):
+ * takenAtMillis long
+ * outLets int, containerCount short, [ingredientName string, capacity int]*
+ * recipeCount short, [recipeName string, ingredientCount short, [ingredientName string, quantity int]*]*
+ * [currentLevel int]* (one per container)
+ * orderCount int, [orderId long, outletNumber short, recipeIndex short, state byte]*
+ * where a string is its UTF-8 length as short followed by the bytes.
+ */
+public class MachineSnapshotCodec {
+
+    public static byte[] encode(MachineSnapshot snapshot) {
+        CoffeeMachineConfig config = snapshot.getCoffeeMachineConfig();
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSizeUpperBound(snapshot));
+        buffer.putLong(snapshot.getTakenAtMillis());
+
+        buffer.putInt(config.getOutLets());
+        buffer.putShort((short) config.getContainerConfigs().size());
+        for (ContainerConfig containerConfig : config.getContainerConfigs()) {
+            putString(buffer, containerConfig.getIngredientName());
+            buffer.putInt(containerConfig.getCapacity());
+        }
+        buffer.putShort((short) config.getRecipes().size());
+        Map<String, Integer> recipeIndexes = new LinkedHashMap<>();
+        for (Recipe recipe : config.getRecipes()) {
+            recipeIndexes.put(recipe.getName(), recipeIndexes.size());
+            putString(buffer, recipe.getName());
+            buffer.putShort((short) recipe.getIngredients().size());
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                putString(buffer, ingredient.getName());
+                buffer.putInt(ingredient.getQuantity());
+            }
+        }
+
+        for (ContainerConfig containerConfig : config.getContainerConfigs()) {
+            buffer.putInt(snapshot.getContainerLevels().getOrDefault(containerConfig.getIngredientName(), 0));
+        }
+
+        buffer.putInt(snapshot.getPendingOrders().size());
+        for (PendingOrder order : snapshot.getPendingOrders()) {
+            Integer recipeIndex = recipeIndexes.get(order.getRecipeName());
+            if (recipeIndex == null) {
+                throw new InvalidSnapshotException("Order " + order.getOrderId() + " has unknown recipe "
+                        + order.getRecipeName());
+            }
+            buffer.putLong(order.getOrderId());
+            buffer.putShort((short) order.getOutletNumber());
+            buffer.putShort(recipeIndex.shortValue());
+            buffer.put((byte) order.getState().ordinal());
+        }
+
+        byte[] encoded = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(encoded);
+        return encoded;
+    }
+
+    public static MachineSnapshot decode(ByteBuffer buffer) {
+        try {
+            long takenAtMillis = buffer.getLong();
+
+            int outLets = buffer.getInt();
+            int containerCount = buffer.getShort();
+            List<ContainerConfig> containerConfigs = new ArrayList<>();
+            for (int i = 0; i < containerCount; i++) {
+                containerConfigs.add(new ContainerConfig(getString(buffer), buffer.getInt()));
+            }
+            int recipeCount = buffer.getShort();
+            List<Recipe> recipes = new ArrayList<>();
+            for (int i = 0; i < recipeCount; i++) {
+                String recipeName = getString(buffer);
+                int ingredientCount = buffer.getShort();
+                List<Ingredient> ingredients = new ArrayList<>();
+                for (int j = 0; j < ingredientCount; j++) {
+                    ingredients.add(new Ingredient(getString(buffer), buffer.getInt()));
+                }
+                recipes.add(new Recipe(recipeName, ingredients));
+            }
+
+            Map<String, Integer> containerLevels = new LinkedHashMap<>();
+            for (ContainerConfig containerConfig : containerConfigs) {
+                containerLevels.put(containerConfig.getIngredientName(), buffer.getInt());
+            }
+
+            int orderCount = buffer.getInt();
+            List<PendingOrder> pendingOrders = new ArrayList<>();
+            for (int i = 0; i < orderCount; i++) {
+                long orderId = buffer.getLong();
+                int outletNumber = buffer.getShort();
+                int recipeIndex = buffer.getShort();
+                int state = buffer.get();
+                if (recipeIndex < 0 || recipeIndex >= recipes.size() || state < 0
+                        || state >= PendingOrder.State.values().length) {
+                    throw new InvalidSnapshotException("Corrupt order " + orderId + " in snapshot");
+                }
+                pendingOrders.add(new PendingOrder(orderId, recipes.get(recipeIndex).getName(), outletNumber,
+                        PendingOrder.State.values()[state]));
+            }
+
+            return new MachineSnapshot(takenAtMillis,
+                    new CoffeeMachineConfig(containerConfigs, recipes, outLets),
+                    containerLevels,
+                    pendingOrders);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException ex) {
+            throw new InvalidSnapshotException("Truncated or corrupt snapshot: " + ex);
+        }
+    }
+
+    private static int encodedSizeUpperBound(MachineSnapshot snapshot) {
+        CoffeeMachineConfig config = snapshot.getCoffeeMachineConfig();
+        int size = Long.BYTES + Integer.BYTES + Short.BYTES + Short.BYTES + Integer.BYTES;
+        for (ContainerConfig containerConfig : config.getContainerConfigs()) {
+            size += stringSizeUpperBound(containerConfig.getIngredientName()) + 2 * Integer.BYTES;
+        }
+        for (Recipe recipe : config.getRecipes()) {
+            size += stringSizeUpperBound(recipe.getName()) + Short.BYTES;
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                size += stringSizeUpperBound(ingredient.getName()) + Integer.BYTES;
+            }
+        }
+        return size + snapshot.getPendingOrders().size() * (Long.BYTES + 2 * Short.BYTES + 1);
+    }
+
+    private static int stringSizeUpperBound(String value) {
+        // a char takes atmost 3 bytes in UTF-8
+        return Short.BYTES + 3 * value.length();
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package server.snapshot;
+
+import server.exceptions.InvalidSnapshotException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * MappedSnapshotFile keeps encoded snapshots in a memory mapped file with two fixed size slots written alternately,
+ * so that the previous snapshot stays intact while the next one is being written.
+ * Every slot has a header: magic int, sequence long, payload length int, payload crc32 int.
+ * Reading picks the slot with a valid header and checksum and the highest sequence.
+ */
+public class MappedSnapshotFile implements Closeable {
+    private static final int MAGIC = 0x434D534E;
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final int slotSize;
+    private long sequence;
+
+    public MappedSnapshotFile(Path path, int slotSize) throws IOException {
+        this.slotSize = slotSize;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * slotSize);
+        sequence = Math.max(validSequence(0), validSequence(1));
+    }
+
+    /**
+     * @return payload of the latest valid snapshot, backed directly by the mapped file.
+     */
+    public Optional<ByteBuffer> readLatest() {
+        if (sequence <= 0) return Optional.empty();
+        int offset = slotOffset(sequence);
+        return Optional.of(payload(offset, mapped.getInt(offset + Integer.BYTES + Long.BYTES)));
+    }
+
+    public void write(byte[] payload) {
+        if (payload.length > slotSize - HEADER_BYTES) {
+            throw new InvalidSnapshotException("Snapshot of " + payload.length + " bytes doesn't fit in a slot of "
+                    + slotSize + " bytes");
+        }
+        long next = sequence + 1;
+        int offset = slotOffset(next);
+        // invalidate the slot first, so a crash halfway never leaves a slot which looks valid.
+        mapped.putInt(offset, 0);
+        ByteBuffer slot = mapped.duplicate();
+        slot.position(offset + HEADER_BYTES);
+        slot.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        mapped.putLong(offset + Integer.BYTES, next);
+        mapped.putInt(offset + Integer.BYTES + Long.BYTES, payload.length);
+        mapped.putInt(offset + Integer.BYTES + Long.BYTES + Integer.BYTES, (int) crc.getValue());
+        mapped.putInt(offset, MAGIC);
+        mapped.force();
+        sequence = next;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return sequence of the snapshot in the slot, or 0 if the slot doesn't hold a valid snapshot.
+     */
+    private long validSequence(int slot) {
+        int offset = slot * slotSize;
+        if (mapped.getInt(offset) != MAGIC) return 0;
+        long slotSequence = mapped.getLong(offset + Integer.BYTES);
+        int length = mapped.getInt(offset + Integer.BYTES + Long.BYTES);
+        if (slotSequence <= 0 || length < 0 || length > slotSize - HEADER_BYTES) return 0;
+        CRC32 crc = new CRC32();
+        crc.update(payload(offset, length));
+        if ((int) crc.getValue() != mapped.getInt(offset + Integer.BYTES + Long.BYTES + Integer.BYTES)) return 0;
+        return slotSequence;
+    }
+
+    private ByteBuffer payload(int offset, int length) {
+        ByteBuffer payload = mapped.duplicate();
+        payload.position(offset + HEADER_BYTES);
+        payload.limit(offset + HEADER_BYTES + length);
+        return payload.slice();
+    }
+
+    private int slotOffset(long slotSequence) {
+        return (int) (slotSequence % 2) * slotSize;
+    }
+}
@@ -0,0 +1,130 @@
+package server.snapshot;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import server.CoffeeMachine;
+import server.configs.CoffeeMachineConfig;
+import server.containers.ContainerHandlerFactory;
+import server.containers.ContainerLevel;
+import server.containers.ContainerLevelCache;
+import server.orders.PendingOrder;
+import server.replication.ReplicatedContainerLevels;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnapshotService periodically writes a MachineSnapshot to a memory mapped file, enabled with snapshot.enabled=true.
+ * At startup, if the file holds a snapshot taken with the same CoffeeMachineConfig, the container levels are restored
+ * and the pending orders are resumed on their outlets, so a standby pointed at the same file takes over with its queue intact.
+ * <p>
+ * Container levels and pending orders are read as one consistent cut, see CoffeeMachine.withConsistentCut,
+ * so an order is either QUEUED with none of its ingredients taken out of the levels or IN_FLIGHT with all of them.
+ * When replication is enabled container levels are owned by the replicas and are not restored from the snapshot.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "snapshot.enabled", havingValue = "true")
+public class SnapshotService {
+    @Autowired
+    private CoffeeMachineConfig coffeeMachineConfig;
+    @Autowired
+    private CoffeeMachine coffeeMachine;
+    @Autowired
+    private ContainerHandlerFactory containerHandlerFactory;
+    @Autowired
+    private ContainerLevelCache containerLevelCache;
+    @Autowired(required = false)
+    private ReplicatedContainerLevels replicatedContainerLevels;
+    @Value("${snapshot.path}")
+    private String path;
+    @Value("${snapshot.intervalMs:1000}")
+    private long intervalMs;
+    @Value("${snapshot.slotSizeBytes:1048576}")
+    private int slotSizeBytes;
+
+    private MappedSnapshotFile snapshotFile;
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    private void setup() throws IOException {
+        snapshotFile = new MappedSnapshotFile(Paths.get(path), slotSizeBytes);
+        snapshotFile.readLatest().ifPresent(this::restore);
+
+        log.info("Taking snapshots to {} every {} ms", path, intervalMs);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("snapshot").build());
+        executor.scheduleWithFixedDelay(this::takeSnapshot, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() throws IOException, InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(intervalMs, TimeUnit.MILLISECONDS);
+        takeSnapshot();
+        snapshotFile.close();
+    }
+
+    public void takeSnapshot() {
+        try {
+            MachineSnapshot snapshot = coffeeMachine.withConsistentCut(() ->
+                    new MachineSnapshot(System.currentTimeMillis(), coffeeMachineConfig, containerLevels(),
+                            coffeeMachine.getPendingOrders()));
+            snapshotFile.write(MachineSnapshotCodec.encode(snapshot));
+        } catch (Exception ex) {
+            // never let a failed snapshot kill the scheduled task.
+            log.error("Could not take snapshot", ex);
+        }
+    }
+
+    private Map<String, Integer> containerLevels() {
+        Map<String, Integer> containerLevels = new LinkedHashMap<>();
+        for (ContainerLevel container : containerLevelCache.getAll().getContainers()) {
+            // credit held by outlets is still in the container.
+            containerLevels.put(container.getIngredientName(),
+                    container.getCurrentLevel() + container.getOutletCredit());
+        }
+        return containerLevels;
+    }
+
+    private void restore(ByteBuffer encoded) {
+        long startedAt = System.nanoTime();
+        MachineSnapshot snapshot;
+        try {
+            snapshot = MachineSnapshotCodec.decode(encoded);
+        } catch (Exception ex) {
+            log.error("Could not read snapshot at {}, starting cold", path, ex);
+            return;
+        }
+        if (!coffeeMachineConfig.equals(snapshot.getCoffeeMachineConfig())) {
+            log.warn("Snapshot at {} was taken with a different config, starting cold", path);
+            return;
+        }
+
+        if (replicatedContainerLevels == null) {
+            snapshot.getContainerLevels().forEach((ingredientName, level) ->
+                    containerHandlerFactory.getHandler(ingredientName).restore(level).join());
+        } else {
+            log.warn("Container levels are replicated, not restoring them from snapshot");
+        }
+        for (PendingOrder order : snapshot.getPendingOrders()) {
+            coffeeMachine.resume(order).whenComplete((response, throwable) ->
+                    log.info("Resumed order {} completed, dispensed {}", order.getOrderId(),
+                            response != null && response.getDispensed()));
+        }
+        log.info("Restored snapshot taken at {} with {} pending orders in {} ms", snapshot.getTakenAtMillis(),
+                snapshot.getPendingOrders().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+    }
+}
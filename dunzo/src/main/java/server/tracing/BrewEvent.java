@@ -0,0 +1,19 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time spent brewing a beverage once its ingredients are reserved.
+ */
+@Name("coffee.Brew")
+@Label("Brew")
+public class BrewEvent extends OrderEvent {
+    @Label("Recipe")
+    private String recipeName;
+
+    public BrewEvent(long orderId, String recipeName) {
+        super(orderId);
+        this.recipeName = recipeName;
+    }
+}
@@ -0,0 +1,19 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time taken to return already reserved ingredients when a recipe could not be fully reserved.
+ */
+@Name("coffee.Compensation")
+@Label("Compensation")
+public class CompensationEvent extends OrderEvent {
+    @Label("Recipe")
+    private String recipeName;
+
+    public CompensationEvent(long orderId, String recipeName) {
+        super(orderId);
+        this.recipeName = recipeName;
+    }
+}
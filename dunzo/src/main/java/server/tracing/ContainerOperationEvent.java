@@ -0,0 +1,35 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time a ContainerHandler spent executing an add/subtract, including reading and saving the container.
+ */
+@Name("coffee.ContainerOperation")
+@Label("Container Operation")
+public class ContainerOperationEvent extends OrderEvent {
+    @Label("Ingredient")
+    private String ingredientName;
+    @Label("Operation")
+    private String operation;
+    @Label("Quantity")
+    private int quantity;
+    @Label("Succeeded")
+    private boolean succeeded;
+
+    public ContainerOperationEvent(long orderId, String ingredientName, String operation, int quantity) {
+        super(orderId);
+        this.ingredientName = ingredientName;
+        this.operation = operation;
+        this.quantity = quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public void setSucceeded(boolean succeeded) {
+        this.succeeded = succeeded;
+    }
+}
@@ -0,0 +1,22 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time an add/subtract waited in a ContainerHandler's queue before the handler started working on it.
+ */
+@Name("coffee.ContainerQueue")
+@Label("Container Queue")
+public class ContainerQueueEvent extends OrderEvent {
+    @Label("Ingredient")
+    private String ingredientName;
+    @Label("Operation")
+    private String operation;
+
+    public ContainerQueueEvent(long orderId, String ingredientName, String operation) {
+        super(orderId);
+        this.ingredientName = ingredientName;
+        this.operation = operation;
+    }
+}
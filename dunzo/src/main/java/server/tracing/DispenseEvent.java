@@ -0,0 +1,28 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Spans a whole dispense, from the request being accepted till the response is ready.
+ */
+@Name("coffee.Dispense")
+@Label("Dispense")
+public class DispenseEvent extends OrderEvent {
+    @Label("Recipe")
+    private String recipeName;
+    @Label("Outlet")
+    private int outletNumber;
+    @Label("Dispensed")
+    private boolean dispensed;
+
+    public DispenseEvent(long orderId, String recipeName, int outletNumber) {
+        super(orderId);
+        this.recipeName = recipeName;
+        this.outletNumber = outletNumber;
+    }
+
+    public void setDispensed(boolean dispensed) {
+        this.dispensed = dispensed;
+    }
+}
@@ -0,0 +1,118 @@
+package server.tracing;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * DispenseTraceAnalyzer turns a JFR recording into per-stage latency breakdowns of dispenses.
+ * It prints the latency distribution of every stage and then the slowest orders with the time
+ * they spent in each stage. Container stages of an order run in parallel for different ingredients,
+ * so for an order they are reported as the sum over all ingredients.
+ * <p>
+ * The recording is read twice so memory doesn't grow with its size: the first pass fills a LatencyHistogram
+ * per stage and keeps only the slowest dispenses, the second pass collects the stages of just those orders.
+ * <p>
+ * Record with: java -XX:StartFlightRecording=filename=dispense.jfr ...
+ * Analyze with: java -cp coffee.jar server.tracing.DispenseTraceAnalyzer dispense.jfr [numberOfSlowestOrders]
+ */
+public class DispenseTraceAnalyzer {
+    private static final String EVENT_PREFIX = "coffee.";
+    static final String DISPENSE_STAGE = "Dispense";
+
+    private final Map<String, LatencyHistogram> stageLatencies = new TreeMap<>();
+    // orderId -> stage -> nanos, slowest order first.
+    private final Map<Long, Map<String, Long>> slowestOrders = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: DispenseTraceAnalyzer <recording.jfr> [numberOfSlowestOrders]");
+            System.exit(1);
+        }
+        int slowest = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        analyze(Paths.get(args[0]), slowest).print(System.out);
+    }
+
+    public static DispenseTraceAnalyzer analyze(Path recording, int slowest) throws IOException {
+        DispenseTraceAnalyzer analyzer = new DispenseTraceAnalyzer();
+        // min heap of {orderId, nanos}, the fastest of the slowest dispenses is evicted first.
+        PriorityQueue<long[]> slowestDispenses = new PriorityQueue<>(Comparator.comparingLong(dispense -> dispense[1]));
+        forEachEvent(recording, event -> {
+            String stage = event.getEventType().getLabel();
+            long nanos = event.getDuration().toNanos();
+            analyzer.stageLatencies.computeIfAbsent(stage, __ -> new LatencyHistogram()).record(nanos);
+            if (slowest > 0 && stage.equals(DISPENSE_STAGE)) {
+                slowestDispenses.add(new long[]{event.getLong("orderId"), nanos});
+                if (slowestDispenses.size() > slowest) slowestDispenses.poll();
+            }
+        });
+
+        List<long[]> dispenses = new ArrayList<>(slowestDispenses);
+        dispenses.sort(Comparator.comparingLong((long[] dispense) -> dispense[1]).reversed());
+        Map<Long, Map<String, Long>> stages = new HashMap<>();
+        dispenses.forEach(dispense -> stages.put(dispense[0], new TreeMap<>()));
+        forEachEvent(recording, event -> {
+            Map<String, Long> orderStages = stages.get(event.getLong("orderId"));
+            if (orderStages != null) {
+                orderStages.merge(event.getEventType().getLabel(), event.getDuration().toNanos(), Long::sum);
+            }
+        });
+        dispenses.forEach(dispense -> analyzer.slowestOrders.put(dispense[0], stages.get(dispense[0])));
+        return analyzer;
+    }
+
+    Map<String, LatencyHistogram> getStageLatencies() {
+        return stageLatencies;
+    }
+
+    Map<Long, Map<String, Long>> getSlowestOrders() {
+        return slowestOrders;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%-22s %8s %10s %10s %10s %10s %10s%n", "stage", "count", "mean ms", "p50 ms", "p90 ms",
+                "p99 ms", "max ms");
+        stageLatencies.forEach((stage, latencies) ->
+                out.printf("%-22s %8d %10.2f %10.2f %10.2f %10.2f %10.2f%n", stage, latencies.getCount(),
+                        millis(latencies.getMean()), millis(latencies.percentile(50)),
+                        millis(latencies.percentile(90)), millis(latencies.percentile(99)),
+                        millis(latencies.getMax())));
+
+        out.printf("%nslowest %d orders%n", slowestOrders.size());
+        slowestOrders.forEach((orderId, orderStages) -> {
+            String stages = orderStages.entrySet()
+                    .stream()
+                    .map(stage -> String.format("%s=%.2fms", stage.getKey(), millis(stage.getValue())))
+                    .collect(Collectors.joining(" "));
+            out.printf("order %d: %s%n", orderId, stages);
+        });
+    }
+
+    private static void forEachEvent(Path recording, Consumer<RecordedEvent> consumer) throws IOException {
+        // stream the events instead of loading the whole recording in memory.
+        try (RecordingFile recordingFile = new RecordingFile(recording)) {
+            while (recordingFile.hasMoreEvents()) {
+                RecordedEvent event = recordingFile.readEvent();
+                if (event.getEventType().getName().startsWith(EVENT_PREFIX)) consumer.accept(event);
+            }
+        }
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,67 @@
+package server.tracing;
+
+/**
+ * LatencyHistogram counts latencies in log-linear buckets, each power of two is split in 32 sub-buckets.
+ * Memory is fixed no matter how many latencies are recorded, percentiles are accurate to about 3%.
+ * Latencies below 64ns, the count, mean and max are exact.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // latencies below this are counted in a bucket of their own.
+    private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+
+    private final long[] buckets = new long[EXACT_LIMIT + (Long.SIZE - 1 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets[index(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the middle of the bucket holding the percentile, never more than the max.
+     */
+    long percentile(int percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min(max, middle(i));
+        }
+        return max;
+    }
+
+    private static int index(long value) {
+        if (value < EXACT_LIMIT) return (int) value;
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+        return EXACT_LIMIT + (exponent - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long middle(int index) {
+        if (index < EXACT_LIMIT) return index;
+        int exponent = (index - EXACT_LIMIT) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        int subBucket = (index - EXACT_LIMIT) % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        long lower = (long) (SUB_BUCKETS + subBucket) << shift;
+        return lower + (1L << shift) / 2;
+    }
+}
@@ -0,0 +1,30 @@
+package server.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * OrderEvent is the base of all Java Flight Recorder events emitted while dispensing a beverage.
+ * Every stage of a dispense is recorded as its own event and all of them carry the same orderId,
+ * so a recording can be broken down into per-stage latencies of every order.
+ * Stack traces are not recorded to keep the events cheap enough to be always enabled.
+ * <p>
+ * Please See: DispenseTraceAnalyzer
+ */
+@Category("Coffee Machine")
+@StackTrace(false)
+public abstract class OrderEvent extends Event {
+    // used for refills, which are not part of any order.
+    public static final long NO_ORDER = 0;
+
+    @Label("Order Id")
+    @Description("Correlates all the stages of a single dispense")
+    protected long orderId;
+
+    protected OrderEvent(long orderId) {
+        this.orderId = orderId;
+    }
+}
@@ -0,0 +1,19 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time an order spent waiting in an outlet's queue before the outlet started working on it.
+ */
+@Name("coffee.OutletQueue")
+@Label("Outlet Queue")
+public class OutletQueueEvent extends OrderEvent {
+    @Label("Outlet")
+    private int outletNumber;
+
+    public OutletQueueEvent(long orderId, int outletNumber) {
+        super(orderId);
+        this.outletNumber = outletNumber;
+    }
+}
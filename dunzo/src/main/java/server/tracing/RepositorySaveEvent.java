@@ -0,0 +1,19 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time taken by ContainerRepository to save a container.
+ */
+@Name("coffee.RepositorySave")
+@Label("Repository Save")
+public class RepositorySaveEvent extends OrderEvent {
+    @Label("Ingredient")
+    private String ingredientName;
+
+    public RepositorySaveEvent(long orderId, String ingredientName) {
+        super(orderId);
+        this.ingredientName = ingredientName;
+    }
+}
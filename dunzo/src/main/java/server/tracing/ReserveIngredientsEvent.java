@@ -0,0 +1,25 @@
+package server.tracing;
+
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Time taken to reserve all the ingredients of a recipe, including compensation on failure.
+ */
+@Name("coffee.ReserveIngredients")
+@Label("Reserve Ingredients")
+public class ReserveIngredientsEvent extends OrderEvent {
+    @Label("Recipe")
+    private String recipeName;
+    @Label("Reserved")
+    private boolean reserved;
+
+    public ReserveIngredientsEvent(long orderId, String recipeName) {
+        super(orderId);
+        this.recipeName = recipeName;
+    }
+
+    public void setReserved(boolean reserved) {
+        this.reserved = reserved;
+    }
+}
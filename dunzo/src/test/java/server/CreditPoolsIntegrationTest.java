@@ -0,0 +1,116 @@
+package server;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+import server.configs.CoffeeMachineConfig;
+import server.configs.Ingredient;
+import server.configs.Recipe;
+import server.containers.ContainerLevelCache;
+import server.containers.IngredientCreditPools;
+import server.database.models.Container;
+import server.database.repositories.ContainerRepository;
+import server.requests.DispenseBeverageRequest;
+import server.requests.RefillIngredientRequest;
+import server.responses.DispenseBeverageResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+        "credit.enabled=true",
+        "credit.chunkServings=2",
+        "brewTime=10",
+        "spring.datasource.url=jdbc:h2:mem:credit"
+})
+@Import(IntegrationTest.TestCoffeeMachineConfig.class)
+public class CreditPoolsIntegrationTest {
+    @Autowired
+    private ApplicationContext ctx;
+
+    @Test
+    public void testCoffeeMachine_WithOutletCredit() {
+        CoffeeMachine coffeeMachine = ctx.getBean(CoffeeMachine.class);
+        CoffeeMachineConfig coffeeMachineConfig = ctx.getBean(CoffeeMachineConfig.class);
+        ContainerRepository containerRepository = ctx.getBean(ContainerRepository.class);
+        IngredientCreditPools ingredientCreditPools = ctx.getBean(IngredientCreditPools.class);
+
+        Map<String, Integer> refilled = new HashMap<>();
+        for (Container container : containerRepository.findAll()) {
+            fillUp(container.getIngredientName());
+            refilled.put(container.getIngredientName(), container.getCapacity());
+        }
+
+        // more requests than there is stock for, from all the outlets.
+        List<DispenseBeverageRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            for (int outlet = 1; outlet <= coffeeMachineConfig.getOutLets(); outlet++) {
+                requests.add(new DispenseBeverageRequest(i % 2 == 0 ? "GREEN_TEA" : "BLACK_TEA", outlet));
+            }
+        }
+        List<CompletableFuture<DispenseBeverageResponse>> responses = new ArrayList<>();
+        for (DispenseBeverageRequest request : requests) {
+            responses.add(coffeeMachine.dispense(request));
+        }
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).join();
+
+        Map<String, Integer> consumed = new HashMap<>();
+        int dispensed = 0;
+        for (int i = 0; i < responses.size(); i++) {
+            if (!responses.get(i).join().getDispensed()) continue;
+            dispensed++;
+            Recipe recipe = coffeeMachineConfig.getRecipe(requests.get(i).getRecipeName());
+            for (Ingredient ingredient : recipe.getIngredients()) {
+                consumed.merge(ingredient.getName(), ingredient.getQuantity(), Integer::sum);
+            }
+        }
+        assert dispensed > 0;
+
+        // everything refilled is either consumed, still in the container or held as credit by an outlet.
+        for (Container container : containerRepository.findAll()) {
+            String ingredientName = container.getIngredientName();
+            assert refilled.get(ingredientName) == consumed.getOrDefault(ingredientName, 0)
+                    + container.getCurrentLevel() + ingredientCreditPools.outstanding(ingredientName);
+        }
+    }
+
+    @Test
+    public void testCredit_ChunkCappedAndServedLocally() {
+        ContainerLevelCache containerLevelCache = ctx.getBean(ContainerLevelCache.class);
+        IngredientCreditPools ingredientCreditPools = ctx.getBean(IngredientCreditPools.class);
+        fillUp("HOT_WATER");
+
+        // a chunk of 2 * 300 is more than the container holds, the outlet gets what is there.
+        ingredientCreditPools.reserve(1, 1, "HOT_WATER", 300);
+        assert containerLevelCache.get("HOT_WATER").getCurrentLevel() == 0;
+        assert ingredientCreditPools.outstanding("HOT_WATER") == 200;
+        // the credit is still served next to the level.
+        assert containerLevelCache.get("HOT_WATER").getOutletCredit() == 200;
+
+        // the next reservation of the outlet is served from its credit without reaching the ContainerHandler.
+        long version = containerLevelCache.getAll().getVersion();
+        ingredientCreditPools.reserve(2, 1, "HOT_WATER", 200);
+        assert containerLevelCache.getAll().getVersion() == version;
+        assert ingredientCreditPools.outstanding("HOT_WATER") == 0;
+    }
+
+    private void fillUp(String ingredientName) {
+        CoffeeMachine coffeeMachine = ctx.getBean(CoffeeMachine.class);
+        IngredientCreditPools ingredientCreditPools = ctx.getBean(IngredientCreditPools.class);
+        ContainerRepository containerRepository = ctx.getBean(ContainerRepository.class);
+        ingredientCreditPools.reclaim(0, ingredientName).join();
+        Container container = containerRepository.findById(ingredientName).get();
+        if (container.getCurrentLevel() < container.getCapacity()) {
+            coffeeMachine.refill(new RefillIngredientRequest(ingredientName,
+                    container.getCapacity() - container.getCurrentLevel()));
+        }
+    }
+}
@@ -8,10 +8,14 @@ import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.test.context.junit4.SpringRunner;
+import server.admission.AdmissionStats;
 import server.configs.CoffeeMachineConfig;
 import server.configs.ContainerConfig;
 import server.configs.Ingredient;
 import server.configs.Recipe;
+import server.containers.ContainerHandlerFactory;
+import server.containers.ContainerLevelCache;
+import server.controllers.CoffeeMachineController;
 import server.database.models.Container;
 import server.database.repositories.ContainerRepository;
 import server.exceptions.IngredientNotFoundException;
@@ -21,6 +25,7 @@ import server.exceptions.RecipeNotFoundException;
 import server.requests.DispenseBeverageRequest;
 import server.requests.RefillIngredientRequest;
 import server.responses.DispenseBeverageResponse;
+import server.tracing.OrderEvent;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -180,6 +185,28 @@ public class IntegrationTest {
         assert isInvalidCapacity;
     }
 
+    @Test
+    public void testCoffeeMachine_InvalidRequests() {
+        CoffeeMachine coffeeMachine = ctx.getBean(CoffeeMachine.class);
+        int level = ctx.getBean(ContainerRepository.class).findById("HOT_WATER").get().getCurrentLevel();
+        boolean isInvalidCapacity = false;
+        try {
+            coffeeMachine.refill(new RefillIngredientRequest("HOT_WATER", -50));
+        } catch (InvalidCapacityException ex) {
+            isInvalidCapacity = true;
+        }
+        assert isInvalidCapacity;
+        assert ctx.getBean(ContainerRepository.class).findById("HOT_WATER").get().getCurrentLevel() == level;
+
+        boolean isInvalidOutLet = false;
+        try {
+            coffeeMachine.dispense(new DispenseBeverageRequest("HOT_TEA", null)).join();
+        } catch (InvalidOutletException ex) {
+            isInvalidOutLet = true;
+        }
+        assert isInvalidOutLet;
+    }
+
     @Test
     public void testCoffeeMachine_RecipeNotFoundException() {
         CoffeeMachine coffeeMachine = ctx.getBean(CoffeeMachine.class);
@@ -209,4 +236,114 @@ public class IntegrationTest {
         }
         assert ingredientNotFound;
     }
+
+    @Test
+    public void testContainerLevelCache_MatchesRepository() {
+        ContainerLevelCache containerLevelCache = ctx.getBean(ContainerLevelCache.class);
+        ContainerRepository containerRepository = ctx.getBean(ContainerRepository.class);
+
+        List<Container> containers = containerRepository.findAll();
+        assert containerLevelCache.getAll().getContainers().size() == containers.size();
+        for (Container container : containers) {
+            assert containerLevelCache.get(container.getIngredientName()).getCurrentLevel()
+                    == container.getCurrentLevel();
+        }
+    }
+
+    @Test
+    public void testAdmissionStats_OnePerOutlet() {
+        CoffeeMachineConfig coffeeMachineConfig = ctx.getBean(CoffeeMachineConfig.class);
+        List<AdmissionStats> stats = ctx.getBean(CoffeeMachineController.class).getAdmissionStats();
+
+        assert stats.size() == coffeeMachineConfig.getOutLets();
+        for (int i = 0; i < stats.size(); i++) {
+            assert stats.get(i).getOutletNumber() == i + 1;
+            assert stats.get(i).getInFlight() >= 0;
+        }
+    }
+
+    @Test
+    public void testCoffeeMachine_IdempotentDispense() {
+        CoffeeMachine coffeeMachine = ctx.getBean(CoffeeMachine.class);
+        CoffeeMachineConfig coffeeMachineConfig = ctx.getBean(CoffeeMachineConfig.class);
+        ContainerRepository containerRepository = ctx.getBean(ContainerRepository.class);
+        Recipe recipe = coffeeMachineConfig.getRecipe("GREEN_TEA");
+
+        // fill up the containers of the recipe, whatever the earlier tests left in them.
+        Map<String, Integer> before = new HashMap<>();
+        for (Ingredient ingredient : recipe.getIngredients()) {
+            Container container = containerRepository.findById(ingredient.getName()).get();
+            if (container.getCurrentLevel() < container.getCapacity()) {
+                coffeeMachine.refill(new RefillIngredientRequest(ingredient.getName(),
+                        container.getCapacity() - container.getCurrentLevel()));
+            }
+            before.put(ingredient.getName(), container.getCapacity());
+        }
+
+        CompletableFuture<DispenseBeverageResponse> first =
+                coffeeMachine.dispense(new DispenseBeverageRequest("GREEN_TEA", 2, "kiosk-1-order-1"));
+        CompletableFuture<DispenseBeverageResponse> retry =
+                coffeeMachine.dispense(new DispenseBeverageRequest("GREEN_TEA", 2, "kiosk-1-order-1"));
+        CompletableFuture.allOf(first, retry).join();
+
+        assert first.join().getDispensed();
+        assert first.join() == retry.join();
+        // the retry must not have brewed a second beverage.
+        for (Ingredient ingredient : recipe.getIngredients()) {
+            int level = containerRepository.findById(ingredient.getName()).get().getCurrentLevel();
+            assert level == before.get(ingredient.getName()) - ingredient.getQuantity();
+        }
+    }
+
+    @Test
+    public void testCoffeeMachine_IdempotentDispenseRetriesFailures() {
+        CoffeeMachine coffeeMachine = ctx.getBean(CoffeeMachine.class);
+        CompletableFuture<DispenseBeverageResponse> first =
+                coffeeMachine.dispense(new DispenseBeverageRequest("HOT_TEAZZ", 1, "kiosk-2-order-1"));
+        boolean failed = false;
+        try {
+            first.join();
+        } catch (CompletionException ex) {
+            failed = true;
+        }
+        assert failed;
+
+        // a failure is not remembered, so the retry is validated again instead of getting the cached failure.
+        boolean isInvalidOutLet = false;
+        try {
+            coffeeMachine.dispense(new DispenseBeverageRequest("HOT_TEAZZ", 0, "kiosk-2-order-1"));
+        } catch (InvalidOutletException ex) {
+            isInvalidOutLet = true;
+        }
+        assert isInvalidOutLet;
+    }
+
+    @Test
+    public void testCoffeeMachine_IdempotentDispenseRetriesRejections() {
+        CoffeeMachine coffeeMachine = ctx.getBean(CoffeeMachine.class);
+        CoffeeMachineConfig coffeeMachineConfig = ctx.getBean(CoffeeMachineConfig.class);
+        ContainerRepository containerRepository = ctx.getBean(ContainerRepository.class);
+
+        // empty GREEN_MIXTURE so that GREEN_TEA is rejected.
+        int greenMixture = containerRepository.findById("GREEN_MIXTURE").get().getCurrentLevel();
+        if (greenMixture > 0) {
+            ctx.getBean(ContainerHandlerFactory.class).getHandler("GREEN_MIXTURE")
+                    .subtract(OrderEvent.NO_ORDER, greenMixture).join();
+        }
+        DispenseBeverageResponse rejected =
+                coffeeMachine.dispense(new DispenseBeverageRequest("GREEN_TEA", 3, "kiosk-3-order-1")).join();
+        assert !rejected.getDispensed();
+
+        // after a refill the retry is brewed instead of getting the cached rejection.
+        for (Ingredient ingredient : coffeeMachineConfig.getRecipe("GREEN_TEA").getIngredients()) {
+            Container container = containerRepository.findById(ingredient.getName()).get();
+            if (container.getCurrentLevel() < container.getCapacity()) {
+                coffeeMachine.refill(new RefillIngredientRequest(ingredient.getName(),
+                        container.getCapacity() - container.getCurrentLevel()));
+            }
+        }
+        DispenseBeverageResponse retried =
+                coffeeMachine.dispense(new DispenseBeverageRequest("GREEN_TEA", 3, "kiosk-3-order-1")).join();
+        assert retried.getDispensed();
+    }
 }
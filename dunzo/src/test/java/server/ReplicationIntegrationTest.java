@@ -0,0 +1,80 @@
+package server;
+
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import server.containers.ContainerHandler;
+import server.containers.ContainerHandlerFactory;
+import server.containers.ContainerLevelCache;
+import server.exceptions.IngredientNotAvailableException;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Boots two nodes in separate application contexts which only see each other through their HTTP gossip.
+ */
+public class ReplicationIntegrationTest {
+
+    @Test
+    public void testNodes_ReplicateOverHttpAndLendBudget() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        ConfigurableApplicationContext nodeA = boot("A", portA, portB);
+        try {
+            ConfigurableApplicationContext nodeB = boot("B", portB, portA);
+            try {
+                // every refill happens on A, B never refills.
+                nodeA.getBean(ContainerHandlerFactory.class).getHandler("HOT_WATER").add(300).join();
+                ContainerLevelCache cacheA = nodeA.getBean(ContainerLevelCache.class);
+                ContainerLevelCache cacheB = nodeB.getBean(ContainerLevelCache.class);
+                await(() -> cacheB.get("HOT_WATER").getCurrentLevel() == 300);
+
+                // B has no budget of its own, its first reservations fail until A lends it some.
+                ContainerHandler handlerB = nodeB.getBean(ContainerHandlerFactory.class).getHandler("HOT_WATER");
+                await(() -> {
+                    try {
+                        handlerB.subtract(1, 100).join();
+                        return true;
+                    } catch (CompletionException ex) {
+                        assert ex.getCause() instanceof IngredientNotAvailableException;
+                        return false;
+                    }
+                });
+                await(() -> cacheA.get("HOT_WATER").getCurrentLevel() == 200);
+                assert cacheB.get("HOT_WATER").getCurrentLevel() == 200;
+            } finally {
+                nodeB.close();
+            }
+        } finally {
+            nodeA.close();
+        }
+    }
+
+    private static ConfigurableApplicationContext boot(String nodeId, int port, int peerPort) {
+        // passed as command line arguments so that they take precedence over application.properties.
+        return new SpringApplicationBuilder(Main.class, IntegrationTest.TestCoffeeMachineConfig.class)
+                .run("--server.port=" + port,
+                        "--spring.datasource.url=jdbc:h2:mem:node" + nodeId,
+                        "--replication.enabled=true",
+                        "--replication.nodeId=" + nodeId,
+                        "--replication.peers=http://localhost:" + peerPort,
+                        "--replication.gossipIntervalMs=20");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assert System.currentTimeMillis() < deadline;
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package server;
+
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import server.configs.CoffeeMachineConfig;
+import server.containers.ContainerLevelCache;
+import server.orders.PendingOrder;
+import server.requests.RefillIngredientRequest;
+import server.snapshot.MachineSnapshot;
+import server.snapshot.MachineSnapshotCodec;
+import server.snapshot.MappedSnapshotFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Boots a standby on a snapshot file written by another machine, the way it takes over after a failover.
+ */
+public class SnapshotFailoverIntegrationTest {
+    private static final int SLOT_SIZE = 4096;
+
+    @Test
+    public void testStandby_TakesOverLevelsAndPendingOrders() throws Exception {
+        CoffeeMachineConfig config = new IntegrationTest.TestCoffeeMachineConfig().coffeeMachineConfig();
+        // HOT_TEA takes 200 HOT_WATER, 100 HOT_MILK, 10 GINGER_SYRUP, 10 SUGAR_SYRUP and 30 TEA_LEAVES_SYRUP,
+        // the levels already have the ingredients of the IN_FLIGHT order taken out.
+        Map<String, Integer> levels = new LinkedHashMap<>();
+        levels.put("HOT_MILK", 400);
+        levels.put("HOT_WATER", 300);
+        levels.put("SUGAR_SYRUP", 90);
+        levels.put("GINGER_SYRUP", 90);
+        levels.put("TEA_LEAVES_SYRUP", 70);
+        levels.put("GREEN_MIXTURE", 60);
+        Path path = write(new MachineSnapshot(42, config, levels, Arrays.asList(
+                new PendingOrder(7, "HOT_TEA", 1, PendingOrder.State.IN_FLIGHT),
+                new PendingOrder(8, "HOT_TEA", 2, PendingOrder.State.QUEUED))));
+
+        ConfigurableApplicationContext standby = boot("standby", path);
+        try {
+            CoffeeMachine coffeeMachine = standby.getBean(CoffeeMachine.class);
+            await(() -> coffeeMachine.getPendingOrders().isEmpty());
+
+            // only the QUEUED order reserved its ingredients again, the IN_FLIGHT one was brewed right away.
+            ContainerLevelCache containerLevelCache = standby.getBean(ContainerLevelCache.class);
+            assert containerLevelCache.get("HOT_MILK").getCurrentLevel() == 300;
+            assert containerLevelCache.get("HOT_WATER").getCurrentLevel() == 100;
+            assert containerLevelCache.get("SUGAR_SYRUP").getCurrentLevel() == 80;
+            assert containerLevelCache.get("GINGER_SYRUP").getCurrentLevel() == 80;
+            assert containerLevelCache.get("TEA_LEAVES_SYRUP").getCurrentLevel() == 40;
+            assert containerLevelCache.get("GREEN_MIXTURE").getCurrentLevel() == 60;
+
+            // refills wait for the snapshot lock off the caller's thread.
+            coffeeMachine.refillAsync(new RefillIngredientRequest("GREEN_MIXTURE", 40)).join();
+            assert containerLevelCache.get("GREEN_MIXTURE").getCurrentLevel() == 100;
+        } finally {
+            standby.close();
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testStandby_StartsColdOnConfigMismatch() throws Exception {
+        CoffeeMachineConfig config = new IntegrationTest.TestCoffeeMachineConfig().coffeeMachineConfig();
+        CoffeeMachineConfig otherConfig = new CoffeeMachineConfig(config.getContainerConfigs(), config.getRecipes(),
+                config.getOutLets() + 1);
+        Map<String, Integer> levels = new LinkedHashMap<>();
+        levels.put("HOT_WATER", 300);
+        Path path = write(new MachineSnapshot(42, otherConfig, levels, Arrays.asList(
+                new PendingOrder(8, "HOT_TEA", 2, PendingOrder.State.QUEUED))));
+
+        ConfigurableApplicationContext standby = boot("cold", path);
+        try {
+            assert standby.getBean(CoffeeMachine.class).getPendingOrders().isEmpty();
+            assert standby.getBean(ContainerLevelCache.class).get("HOT_WATER").getCurrentLevel() == 0;
+        } finally {
+            standby.close();
+            Files.delete(path);
+        }
+    }
+
+    private static Path write(MachineSnapshot snapshot) throws Exception {
+        Path path = Files.createTempFile("coffee-machine", ".snapshot");
+        try (MappedSnapshotFile file = new MappedSnapshotFile(path, SLOT_SIZE)) {
+            file.write(MachineSnapshotCodec.encode(snapshot));
+        }
+        return path;
+    }
+
+    private static ConfigurableApplicationContext boot(String name, Path path) {
+        // passed as command line arguments so that they take precedence over application.properties.
+        return new SpringApplicationBuilder(Main.class, IntegrationTest.TestCoffeeMachineConfig.class)
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:" + name,
+                        "--brewTime=10",
+                        "--snapshot.enabled=true",
+                        "--snapshot.path=" + path,
+                        "--snapshot.slotSizeBytes=" + SLOT_SIZE,
+                        "--snapshot.intervalMs=100");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assert System.currentTimeMillis() < deadline;
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package server.admission;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    public void testLimiter_RejectsBeyondLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 100, 0.5, 0);
+        assert limiter.tryAcquire();
+        assert limiter.tryAcquire();
+        assert !limiter.tryAcquire();
+        assert limiter.getInFlight() == 2;
+        assert limiter.getAccepted() == 2;
+        assert limiter.getDropped() == 1;
+    }
+
+    @Test
+    public void testLimiter_AdaptsToQueueWait() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 2, 10, 100, 0.5, 500);
+        long slow = TimeUnit.MILLISECONDS.toNanos(500);
+        long fast = TimeUnit.MILLISECONDS.toNanos(10);
+
+        // queue wait above target halves the limit, but never below minLimit.
+        for (int i = 0; i < 3; i++) {
+            assert limiter.tryAcquire();
+            limiter.release(slow, slow);
+        }
+        assert limiter.getLimit() == 2;
+        // a full outlet drains in about one average latency.
+        assert limiter.tryAcquire() && limiter.tryAcquire();
+        assert limiter.retryAfterMillis() == 500;
+        limiter.release(0, slow);
+        limiter.release(0, slow);
+
+        // queue wait below target grows the limit back, but never above maxLimit.
+        for (int i = 0; i < 1000; i++) {
+            assert limiter.tryAcquire();
+            limiter.release(fast, fast);
+        }
+        assert limiter.getLimit() == 10;
+    }
+
+    @Test
+    public void testRetryAfter_SeededAndScaledByInFlight() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, 100, 0.5, 200);
+
+        // before any order completed the expected latency is used.
+        for (int i = 0; i < 4; i++) assert limiter.tryAcquire();
+        assert limiter.retryAfterMillis() == 200;
+
+        // orders admitted beyond the limit take longer to drain.
+        for (int i = 0; i < 4; i++) limiter.forceAcquire();
+        assert limiter.retryAfterMillis() == 400;
+
+        // 200 + 0.2 * (1200 - 200), spread over 7 orders still in-flight.
+        limiter.release(0, TimeUnit.MILLISECONDS.toNanos(1200));
+        assert limiter.retryAfterMillis() == 7 * 400 / 4;
+    }
+}
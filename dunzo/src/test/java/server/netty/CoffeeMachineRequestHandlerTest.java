@@ -0,0 +1,184 @@
+package server.netty;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import org.junit.Test;
+import server.CoffeeMachine;
+import server.IntegrationTest;
+import server.configs.CoffeeMachineConfig;
+import server.requests.DispenseBeverageRequest;
+import server.responses.DispenseBeverageResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class CoffeeMachineRequestHandlerTest {
+    private final CoffeeMachineConfig coffeeMachineConfig =
+            new IntegrationTest.TestCoffeeMachineConfig().coffeeMachineConfig();
+
+    @Test
+    public void testCodec_RoundTrip() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new LengthFieldBasedFrameDecoder(BinaryProtocol.MAX_FRAME_BYTES,
+                0, Integer.BYTES, 0, Integer.BYTES), new BinaryRequestDecoder());
+
+        decoder.writeInbound(dispenseFrame(7, 3, 2));
+        BinaryRequest dispense = decoder.readInbound();
+        assert dispense.getType() == BinaryProtocol.DISPENSE && dispense.getRequestId() == 7;
+        assert dispense.getIndex() == 3 && dispense.getOutletNumber() == 2;
+
+        decoder.writeInbound(refillFrame(8, 1, 250));
+        BinaryRequest refill = decoder.readInbound();
+        assert refill.getType() == BinaryProtocol.REFILL && refill.getRequestId() == 8;
+        assert refill.getIndex() == 1 && refill.getQuantity() == 250;
+
+        EmbeddedChannel encoder = new EmbeddedChannel(new BinaryResponseEncoder());
+        encoder.writeOutbound(new BinaryResponse(9, BinaryProtocol.BUSY, 120, "Outlet 1 is busy"));
+        BinaryResponse response = readResponse(encoder);
+        assert response.getRequestId() == 9 && response.getStatus() == BinaryProtocol.BUSY;
+        assert response.getRetryAfterMillis() == 120 && response.getMessage().equals("Outlet 1 is busy");
+    }
+
+    @Test
+    public void testUnknownType_ClosesChannel() {
+        EmbeddedChannel channel = channel(new StubCoffeeMachine());
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(1 + Long.BYTES).writeByte(9).writeLong(1);
+        channel.writeInbound(frame);
+
+        assert !channel.isOpen();
+        assert channel.readOutbound() == null;
+    }
+
+    @Test
+    public void testShortFrame_ClosesChannel() {
+        EmbeddedChannel channel = channel(new StubCoffeeMachine());
+        ByteBuf frame = Unpooled.buffer();
+        // a DISPENSE frame without its recipeIndex and outletNumber.
+        frame.writeInt(1 + Long.BYTES).writeByte(BinaryProtocol.DISPENSE).writeLong(1);
+        channel.writeInbound(frame);
+
+        assert !channel.isOpen();
+        assert channel.readOutbound() == null;
+    }
+
+    @Test
+    public void testPipelinedRequests_RespondedInCompletionOrder() {
+        StubCoffeeMachine coffeeMachine = new StubCoffeeMachine();
+        EmbeddedChannel channel = channel(coffeeMachine);
+
+        channel.writeInbound(dispenseFrame(1, 0, 1));
+        channel.writeInbound(dispenseFrame(2, 3, 2));
+        assert coffeeMachine.requests.size() == 2;
+        assert channel.readOutbound() == null;
+
+        // the second request completes first and is answered first.
+        coffeeMachine.responses.get(1).complete(new DispenseBeverageResponse(true));
+        BinaryResponse second = readResponse(channel);
+        assert second.getRequestId() == 2 && second.getStatus() == BinaryProtocol.OK;
+        assert channel.readOutbound() == null;
+
+        coffeeMachine.responses.get(0).complete(new DispenseBeverageResponse(false, "Ingredient not available"));
+        BinaryResponse first = readResponse(channel);
+        assert first.getRequestId() == 1 && first.getStatus() == BinaryProtocol.REJECTED;
+        assert first.getMessage().equals("Ingredient not available");
+        assert coffeeMachine.requests.get(0).getRecipeName().equals("HOT_TEA");
+        assert coffeeMachine.requests.get(1).getRecipeName().equals("GREEN_TEA");
+        assert channel.isOpen();
+    }
+
+    @Test
+    public void testInFlightLimit_PausesReading() {
+        StubCoffeeMachine coffeeMachine = new StubCoffeeMachine();
+        EmbeddedChannel channel = channel(coffeeMachine, 2);
+
+        channel.writeInbound(dispenseFrame(1, 0, 1));
+        assert channel.config().isAutoRead();
+        channel.writeInbound(dispenseFrame(2, 0, 2));
+        assert !channel.config().isAutoRead();
+
+        // a response frees a slot and the connection is read again.
+        coffeeMachine.responses.get(0).complete(new DispenseBeverageResponse(true));
+        assert readResponse(channel).getRequestId() == 1;
+        assert channel.config().isAutoRead();
+    }
+
+    @Test
+    public void testUnwritableChannel_PausesReading() {
+        StubCoffeeMachine coffeeMachine = new StubCoffeeMachine();
+        EmbeddedChannel channel = channel(coffeeMachine, 2);
+
+        // as if the client stopped reading its responses.
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        channel.runPendingTasks();
+        assert !channel.config().isAutoRead();
+        channel.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        channel.runPendingTasks();
+        assert channel.config().isAutoRead();
+    }
+
+    private EmbeddedChannel channel(CoffeeMachine coffeeMachine) {
+        return channel(coffeeMachine, 256);
+    }
+
+    private EmbeddedChannel channel(CoffeeMachine coffeeMachine, int maxInFlightPerConnection) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        NettyServer.configure(channel.pipeline(), new CoffeeMachineRequestHandler(coffeeMachine, coffeeMachineConfig,
+                maxInFlightPerConnection));
+        return channel;
+    }
+
+    private static ByteBuf dispenseFrame(long requestId, int recipeIndex, int outletNumber) {
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(1 + Long.BYTES + 2 * Short.BYTES)
+                .writeByte(BinaryProtocol.DISPENSE)
+                .writeLong(requestId)
+                .writeShort(recipeIndex)
+                .writeShort(outletNumber);
+        return frame;
+    }
+
+    private static ByteBuf refillFrame(long requestId, int ingredientIndex, int quantity) {
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(1 + Long.BYTES + Short.BYTES + Integer.BYTES)
+                .writeByte(BinaryProtocol.REFILL)
+                .writeLong(requestId)
+                .writeShort(ingredientIndex)
+                .writeInt(quantity);
+        return frame;
+    }
+
+    private static BinaryResponse readResponse(EmbeddedChannel channel) {
+        ByteBuf frame = channel.readOutbound();
+        try {
+            assert frame.readInt() == frame.readableBytes();
+            long requestId = frame.readLong();
+            byte status = frame.readByte();
+            int retryAfterMillis = frame.readInt();
+            byte[] message = new byte[frame.readShort()];
+            frame.readBytes(message);
+            return new BinaryResponse(requestId, status, retryAfterMillis, new String(message, StandardCharsets.UTF_8));
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Completes every dispense only when the test says so.
+     */
+    private static class StubCoffeeMachine extends CoffeeMachine {
+        private final List<DispenseBeverageRequest> requests = new ArrayList<>();
+        private final List<CompletableFuture<DispenseBeverageResponse>> responses = new ArrayList<>();
+
+        @Override
+        public CompletableFuture<DispenseBeverageResponse> dispense(DispenseBeverageRequest request) {
+            CompletableFuture<DispenseBeverageResponse> response = new CompletableFuture<>();
+            requests.add(request);
+            responses.add(response);
+            return response;
+        }
+    }
+}
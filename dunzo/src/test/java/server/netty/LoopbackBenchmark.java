@@ -0,0 +1,159 @@
+package server.netty;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import server.CoffeeMachine;
+import server.Main;
+import server.configs.CoffeeMachineConfig;
+import server.configs.ContainerConfig;
+import server.configs.Ingredient;
+import server.configs.Recipe;
+import server.requests.RefillIngredientRequest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LoopbackBenchmark compares submitting dispense requests through the binary endpoint and through HTTP with JSON.
+ * The machine is booted with practically unlimited stock, no brew time, no admission control and outlet credit enabled,
+ * so that the cost of the transport dominates. Both paths send the same requests with the same number in-flight.
+ * <p>
+ * Run with: java -cp target/classes:target/test-classes:[dependencies] server.netty.LoopbackBenchmark [requests] [inFlight]
+ */
+public class LoopbackBenchmark {
+    private static final int OUTLETS = 8;
+    private static final int CAPACITY = 1_000_000_000;
+
+    public static class BenchmarkConfig {
+        @Bean
+        public CoffeeMachineConfig coffeeMachineConfig() {
+            return new CoffeeMachineConfig(
+                    Collections.singletonList(new ContainerConfig("HOT_WATER", CAPACITY)),
+                    Collections.singletonList(new Recipe("HOT_WATER_CUP",
+                            Collections.singletonList(new Ingredient("HOT_WATER", 1)))),
+                    OUTLETS);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        // passed as command line arguments so that they take precedence over application.properties.
+        ConfigurableApplicationContext ctx = new SpringApplicationBuilder(Main.class, BenchmarkConfig.class)
+                .run("--server.port=0",
+                        "--netty.enabled=true",
+                        "--netty.port=0",
+                        "--brewTime=0",
+                        "--admission.enabled=false",
+                        "--credit.enabled=true",
+                        "--credit.chunkServings=10000",
+                        "--logging.level.server=OFF");
+        try {
+            ctx.getBean(CoffeeMachine.class).refill(new RefillIngredientRequest("HOT_WATER", CAPACITY));
+            int httpPort = ((ServletWebServerApplicationContext) ctx).getWebServer().getPort();
+            int nettyPort = ctx.getBean(NettyServer.class).getPort();
+
+            // warm up both paths before measuring.
+            runBinary(nettyPort, requests / 10, inFlight);
+            runHttp(httpPort, requests / 10, inFlight);
+
+            report("binary", requests, runBinary(nettyPort, requests, inFlight));
+            report("http+json", requests, runHttp(httpPort, requests, inFlight));
+        } finally {
+            ctx.close();
+        }
+        // container and outlet executors are not daemon threads.
+        System.exit(0);
+    }
+
+    private static void report(String path, int requests, long nanos) {
+        System.out.printf("%-10s %8d requests in %8.1f ms, %10.0f requests/s, %8.1f us/request%n", path, requests,
+                nanos / 1e6, requests / (nanos / 1e9), nanos / 1e3 / requests);
+    }
+
+    private static long runBinary(int port, int requests, int inFlight) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            Semaphore permits = new Semaphore(inFlight);
+            AtomicInteger failed = new AtomicInteger();
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int i = 0; i < requests; i++) {
+                        in.readInt();
+                        in.readLong();
+                        byte status = in.readByte();
+                        in.readInt();
+                        in.readFully(new byte[in.readShort()]);
+                        if (status != BinaryProtocol.OK) failed.incrementAndGet();
+                        permits.release();
+                    }
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            });
+
+            long startedAt = System.nanoTime();
+            reader.start();
+            for (int i = 0; i < requests; i++) {
+                if (!permits.tryAcquire()) {
+                    // flush what is buffered before waiting, responses won't come for unsent requests.
+                    out.flush();
+                    permits.acquire();
+                }
+                out.writeInt(1 + Long.BYTES + Short.BYTES + Short.BYTES);
+                out.writeByte(BinaryProtocol.DISPENSE);
+                out.writeLong(i);
+                out.writeShort(0);
+                out.writeShort(i % OUTLETS + 1);
+            }
+            out.flush();
+            reader.join();
+            long elapsed = System.nanoTime() - startedAt;
+            if (failed.get() > 0) System.out.println("binary: " + failed.get() + " requests not dispensed");
+            return elapsed;
+        }
+    }
+
+    private static long runHttp(int port, int requests, int inFlight) throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI uri = URI.create("http://localhost:" + port + "/dispense");
+        Semaphore permits = new Semaphore(inFlight);
+        AtomicInteger failed = new AtomicInteger();
+
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            permits.acquire();
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"recipeName\":\"HOT_WATER_CUP\",\"outletNumber\":" + (i % OUTLETS + 1) + "}"))
+                    .build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, throwable) -> {
+                        if (throwable != null || !response.body().contains("\"dispensed\":true")) {
+                            failed.incrementAndGet();
+                        }
+                        permits.release();
+                    });
+        }
+        permits.acquire(inFlight);
+        long elapsed = System.nanoTime() - startedAt;
+        if (failed.get() > 0) System.out.println("http+json: " + failed.get() + " requests not dispensed");
+        return elapsed;
+    }
+}
@@ -0,0 +1,122 @@
+package server.replication;
+
+import org.junit.Test;
+import server.exceptions.ReplicaNotReadyException;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ReplicatedContainerLevelsTest {
+
+    @Test
+    public void testReplicas_ConvergeThroughGossip() {
+        LoopbackGossipTransport transport = new LoopbackGossipTransport();
+        ReplicatedContainerLevels nodeA = new ReplicatedContainerLevels("A", Arrays.asList("HOT_WATER", "HOT_MILK"), 0);
+        ReplicatedContainerLevels nodeB = new ReplicatedContainerLevels("B", Arrays.asList("HOT_WATER", "HOT_MILK"), 0);
+        ContainerLevelsGossiper gossiperA = gossiper(nodeA, transport);
+        ContainerLevelsGossiper gossiperB = gossiper(nodeB, transport);
+
+        nodeA.add("HOT_WATER", 300);
+        nodeB.add("HOT_WATER", 200);
+        assert nodeA.tryReserve("HOT_WATER", 100);
+        assert nodeB.tryReserve("HOT_WATER", 50);
+
+        gossiperA.gossip();
+        gossiperB.gossip();
+
+        assert nodeA.value("HOT_WATER") == 350;
+        assert nodeB.value("HOT_WATER") == 350;
+        // gossiping the same state again must not change anything.
+        transport.broadcast(nodeA.fullState());
+        assert nodeB.value("HOT_WATER") == 350;
+    }
+
+    @Test
+    public void testReservation_LimitedToLocalBudget() {
+        LoopbackGossipTransport transport = new LoopbackGossipTransport();
+        ReplicatedContainerLevels nodeA = new ReplicatedContainerLevels("A", Arrays.asList("HOT_WATER"), 0);
+        ReplicatedContainerLevels nodeB = new ReplicatedContainerLevels("B", Arrays.asList("HOT_WATER"), 0);
+        ContainerLevelsGossiper gossiperA = gossiper(nodeA, transport);
+        gossiper(nodeB, transport);
+
+        nodeA.add("HOT_WATER", 300);
+        gossiperA.gossip();
+
+        // B sees the stock but it was refilled on A, so B has no budget to reserve from.
+        assert nodeB.value("HOT_WATER") == 300;
+        assert !nodeB.tryReserve("HOT_WATER", 100);
+
+        assert nodeA.transfer("HOT_WATER", "B", 100);
+        assert !nodeA.transfer("HOT_WATER", "B", 500);
+        gossiperA.gossip();
+
+        assert nodeB.budget("HOT_WATER") == 100;
+        assert nodeB.tryReserve("HOT_WATER", 100);
+        assert !nodeB.tryReserve("HOT_WATER", 1);
+        assert nodeA.budget("HOT_WATER") == 200;
+    }
+
+    @Test
+    public void testBudget_LentOnDemand() {
+        LoopbackGossipTransport transport = new LoopbackGossipTransport();
+        ReplicatedContainerLevels nodeA = new ReplicatedContainerLevels("A", Arrays.asList("HOT_WATER"), 0);
+        ReplicatedContainerLevels nodeB = new ReplicatedContainerLevels("B", Arrays.asList("HOT_WATER"), 0);
+        ContainerLevelsGossiper gossiperA = gossiper(nodeA, transport);
+        ContainerLevelsGossiper gossiperB = gossiper(nodeB, transport);
+
+        // every refill happens on A, B never refills.
+        nodeA.add("HOT_WATER", 300);
+        gossiperA.gossip();
+        assert !nodeB.tryReserve("HOT_WATER", 100);
+
+        // B asks for budget, A lends half of its budget and gossips the transfer back.
+        gossiperB.gossip();
+        gossiperA.gossip();
+
+        assert nodeB.budget("HOT_WATER") == 150;
+        assert nodeA.budget("HOT_WATER") == 150;
+        assert nodeB.tryReserve("HOT_WATER", 100);
+        // B has its budget now, it doesn't ask again.
+        assert nodeB.delta().getWanted().isEmpty();
+    }
+
+    @Test
+    public void testRestartedNode_RehydratesOwnSlots() {
+        LoopbackGossipTransport transport = new LoopbackGossipTransport();
+        List<String> ingredients = Arrays.asList("HOT_WATER");
+        ReplicatedContainerLevels nodeA = new ReplicatedContainerLevels("A", ingredients, 0);
+        ReplicatedContainerLevels nodeB = new ReplicatedContainerLevels("B", ingredients, 0);
+        ContainerLevelsGossiper gossiperA = gossiper(nodeA, transport);
+        gossiper(nodeB, transport);
+
+        nodeA.add("HOT_WATER", 300);
+        assert nodeA.tryReserve("HOT_WATER", 50);
+        gossiperA.gossip();
+        assert nodeB.value("HOT_WATER") == 250;
+
+        // A restarts with empty memory, writes are refused until it rehydrated.
+        ReplicatedContainerLevels restartedA = new ReplicatedContainerLevels("A", ingredients, 0);
+        ContainerLevelsGossiper restartedGossiperA = new ContainerLevelsGossiper(restartedA, transport, 100, 10);
+        try {
+            restartedA.add("HOT_WATER", 100);
+            assert false;
+        } catch (ReplicaNotReadyException ex) {
+            // expected
+        }
+
+        restartedGossiperA.rehydrate();
+        assert restartedA.budget("HOT_WATER") == 250;
+        restartedA.add("HOT_WATER", 100);
+        restartedGossiperA.gossip();
+
+        // without rehydration the new refill would be hidden behind the old slot of A on B.
+        assert restartedA.value("HOT_WATER") == 350;
+        assert nodeB.value("HOT_WATER") == 350;
+    }
+
+    private ContainerLevelsGossiper gossiper(ReplicatedContainerLevels levels, GossipTransport transport) {
+        ContainerLevelsGossiper gossiper = new ContainerLevelsGossiper(levels, transport, 100, 10);
+        gossiper.rehydrate();
+        return gossiper;
+    }
+}
@@ -0,0 +1,81 @@
+package server.snapshot;
+
+import org.junit.Test;
+import server.configs.CoffeeMachineConfig;
+import server.configs.ContainerConfig;
+import server.configs.Ingredient;
+import server.configs.Recipe;
+import server.orders.PendingOrder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MachineSnapshotTest {
+    private static final int SLOT_SIZE = 4096;
+
+    private MachineSnapshot snapshot(int hotWaterLevel) {
+        CoffeeMachineConfig config = new CoffeeMachineConfig(
+                Arrays.asList(new ContainerConfig("HOT_WATER", 500), new ContainerConfig("HOT_MILK", 500)),
+                Collections.singletonList(new Recipe("HOT_TEA", Arrays.asList(
+                        new Ingredient("HOT_WATER", 200),
+                        new Ingredient("HOT_MILK", 100)))),
+                2);
+        Map<String, Integer> levels = new LinkedHashMap<>();
+        levels.put("HOT_WATER", hotWaterLevel);
+        levels.put("HOT_MILK", 400);
+        return new MachineSnapshot(42, config, levels, Arrays.asList(
+                new PendingOrder(7, "HOT_TEA", 1, PendingOrder.State.IN_FLIGHT),
+                new PendingOrder(8, "HOT_TEA", 2, PendingOrder.State.QUEUED)));
+    }
+
+    @Test
+    public void testCodec_RoundTrip() {
+        MachineSnapshot original = snapshot(300);
+        MachineSnapshot decoded = MachineSnapshotCodec.decode(
+                ByteBuffer.wrap(MachineSnapshotCodec.encode(original)));
+
+        assert decoded.getTakenAtMillis() == 42;
+        assert decoded.getCoffeeMachineConfig().equals(original.getCoffeeMachineConfig());
+        assert decoded.getContainerLevels().equals(original.getContainerLevels());
+        assert decoded.getPendingOrders().size() == 2;
+        assert decoded.getPendingOrders().get(0).getOrderId() == 7;
+        assert decoded.getPendingOrders().get(0).getState() == PendingOrder.State.IN_FLIGHT;
+        assert decoded.getPendingOrders().get(1).getOutletNumber() == 2;
+        assert decoded.getPendingOrders().get(1).getRecipeName().equals("HOT_TEA");
+    }
+
+    @Test
+    public void testMappedFile_ReadsLatestValidSnapshot() throws IOException {
+        Path path = Files.createTempFile("coffee-machine", ".snapshot");
+        try {
+            try (MappedSnapshotFile file = new MappedSnapshotFile(path, SLOT_SIZE)) {
+                assert !file.readLatest().isPresent();
+                file.write(MachineSnapshotCodec.encode(snapshot(300)));
+                file.write(MachineSnapshotCodec.encode(snapshot(100)));
+            }
+            try (MappedSnapshotFile file = new MappedSnapshotFile(path, SLOT_SIZE)) {
+                MachineSnapshot latest = MachineSnapshotCodec.decode(file.readLatest().get());
+                assert latest.getContainerLevels().get("HOT_WATER") == 100;
+            }
+
+            // corrupt the payload of the latest snapshot, the previous one should be picked up instead.
+            try (RandomAccessFile raw = new RandomAccessFile(path.toFile(), "rw")) {
+                raw.seek(30);
+                raw.write(0xFF);
+            }
+            try (MappedSnapshotFile file = new MappedSnapshotFile(path, SLOT_SIZE)) {
+                MachineSnapshot latest = MachineSnapshotCodec.decode(file.readLatest().get());
+                assert latest.getContainerLevels().get("HOT_WATER") == 300;
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
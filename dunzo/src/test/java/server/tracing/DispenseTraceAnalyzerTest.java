@@ -0,0 +1,63 @@
+package server.tracing;
+
+import jdk.jfr.Recording;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class DispenseTraceAnalyzerTest {
+
+    @Test
+    public void testAnalyzer_BreaksDownSlowestOrders() throws Exception {
+        Path file = Files.createTempFile("dispense", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(DispenseEvent.class);
+            recording.enable(BrewEvent.class);
+            recording.start();
+            // order n brews for n * 100 ms, so order 4 is the slowest even with the first event warming up JFR
+            // on a busy machine.
+            for (long orderId = 1; orderId <= 4; orderId++) {
+                DispenseEvent dispenseEvent = new DispenseEvent(orderId, "HOT_TEA", 1);
+                dispenseEvent.begin();
+                BrewEvent brewEvent = new BrewEvent(orderId, "HOT_TEA");
+                brewEvent.begin();
+                Thread.sleep(orderId * 100);
+                brewEvent.commit();
+                dispenseEvent.commit();
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        try {
+            DispenseTraceAnalyzer analyzer = DispenseTraceAnalyzer.analyze(file, 2);
+
+            assert analyzer.getStageLatencies().get("Dispense").getCount() == 4;
+            assert analyzer.getStageLatencies().get("Brew").getCount() == 4;
+            List<Long> slowestOrders = new ArrayList<>(analyzer.getSlowestOrders().keySet());
+            assert slowestOrders.size() == 2 && slowestOrders.get(0) == 4 && slowestOrders.get(1) == 3;
+            Map<String, Long> stages = analyzer.getSlowestOrders().get(4L);
+            assert stages.get("Brew") >= 400_000_000L;
+            assert stages.get("Dispense") >= stages.get("Brew");
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testHistogram_PercentilesWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 1000; micros++) histogram.record(micros * 1000);
+
+        assert histogram.getCount() == 1000;
+        assert histogram.getMax() == 1_000_000;
+        assert Math.abs(histogram.getMean() - 500_500) < 1;
+        assert Math.abs(histogram.percentile(50) - 500_000) <= 500_000 * 0.04;
+        assert Math.abs(histogram.percentile(99) - 990_000) <= 990_000 * 0.04;
+        assert histogram.percentile(100) <= 1_000_000;
+    }
+}